@@ -12,6 +12,18 @@ import sys
 
 dir = sys.argv[1]
 
+#Only the first 3 dimensions are plotted, missing ones are 0
+dims = int(sys.argv[2]) if len(sys.argv) > 2 else 3
+
+#Coordinates are doubles unless written with -float
+fmt = 'f' if len(sys.argv) > 3 and sys.argv[3] == 'float' else 'd'
+recordBytes = dims * struct.calcsize(fmt)
+
+def readPoint(s):
+    values = struct.unpack(">" + fmt * dims, s)
+    values = values + (0.0,) * (3 - len(values))
+    return values[0], values[1], values[2]
+
 fig=p.figure()
 ax = p3.Axes3D(fig)
 
@@ -37,16 +49,16 @@ for i,file in enumerate(files):
     f = open(file, 'r')
     
     #First point in file is center
-    s = f.read(24)
-    x,y,z = struct.unpack(">ddd", s)
+    s = f.read(recordBytes)
+    x,y,z = readPoint(s)
     ax.scatter([x], [y], [z], c='r', marker='x') 
     
     #Now handle rest of cluster
     while True:
-        s = f.read(24)
+        s = f.read(recordBytes)
         if len(s) == 0:
             break;
-        x,y,z = struct.unpack(">ddd", s)
+        x,y,z = readPoint(s)
         xs.append(x)
         ys.append(y)
         zs.append(z)
@@ -0,0 +1,78 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hama.bsp.BSPPeerProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * One {@link KMeansCluster.ClusterBSP} peer holding all points, running the
+ * assignment step against a stub peer that drops the sent points. Points are
+ * restored before every invocation, as the step removes the points that leave.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AssignmentStepBenchmark {
+
+	@Param({"random", "sphere", "cube"})
+	public String pattern;
+
+	@Param({"10000", "100000"})
+	public int numPoints;
+
+	@Param({"4", "16", "64"})
+	public int k;
+
+	@Param({"DOUBLE", "FLOAT"})
+	public Precision precision;
+
+	private PointStore input;
+	private KMeansCluster.ClusterBSP cluster;
+	private BSPPeerProtocol peer;
+	private final BenchmarkData.SentBytes sent = new BenchmarkData.SentBytes();
+
+	@Setup
+	public void setup() throws IOException {
+		input = BenchmarkData.generate(pattern, numPoints, k, 3, precision);
+
+		final Configuration conf = new Configuration();
+		conf.setBoolean(KMeansCluster.CONF_FLOAT, precision == Precision.FLOAT);
+
+		cluster = new KMeansCluster.ClusterBSP();
+		cluster.setConf(conf);
+
+		final String[] names = BenchmarkData.peerNames(k);
+		final double[] means = BenchmarkData.firstMeans(input, k);
+
+		for (int c = 0; c < k; c++) {
+			cluster.peerMeanMap.put(names[c], DenseVector.copyOf(means, c * 3, 3));
+		}
+
+		peer = BenchmarkData.stubPeer(names, sent);
+	}
+
+	@Setup(Level.Invocation)
+	public void restorePoints() {
+		cluster.buffers.release();
+		cluster.points.clear();
+		for (int i = 0; i < input.size(); i++) {
+			cluster.points.add(input, i);
+		}
+	}
+
+	@Benchmark
+	public int assignmentStep() throws IOException {
+		return cluster.assignmentStep(peer);
+	}
+}
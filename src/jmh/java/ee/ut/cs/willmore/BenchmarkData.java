@@ -0,0 +1,121 @@
+package ee.ut.cs.willmore;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hama.bsp.BSPMessage;
+import org.apache.hama.bsp.BSPPeerProtocol;
+
+/**
+ * Benchmark inputs made with the same {@link PointGenerator}s as
+ * {@link KMeansCluster#main}, and a stub peer to run supersteps against.
+ */
+public class BenchmarkData {
+
+	static final int RANGE = 200;
+	static final int PATTERN_SIZE = 10;
+
+	/**
+	 * Generate {@code numPoints} points with {@code k} spheres or cubes (or
+	 * uniformly for random) into a local temporary file and load them.
+	 *
+	 * @param pattern random|sphere|cube, as in the -pattern option
+	 */
+	public static PointStore generate(String pattern, int numPoints, int k, int dimensions) throws IOException {
+		return generate(pattern, numPoints, k, dimensions, Precision.DOUBLE);
+	}
+
+	/**
+	 * As {@link #generate(String, int, int, int)}, written to the file and
+	 * stored in {@code precision}.
+	 */
+	public static PointStore generate(String pattern, int numPoints, int k, int dimensions, Precision precision) throws IOException {
+
+		PointGenerator gen = new RandomPointGenerator();
+
+		if ("sphere".equals(pattern)) {
+			gen = new SphereRandomPointGenerator(k, PATTERN_SIZE);
+		} else if ("cube".equals(pattern)) {
+			gen = new CubeRandomPointGenerator(k, PATTERN_SIZE);
+		}
+
+		final FileSystem fileSys = FileSystem.getLocal(new Configuration());
+		final File file = File.createTempFile("kmeans-bench", ".dat");
+		final Path path = new Path(file.getAbsolutePath());
+
+		try {
+			gen.generateSourceFile(fileSys, path, numPoints, RANGE, 0, dimensions, precision);
+
+			final PointReader reader = PointReader.open(fileSys, path, dimensions, precision);
+			final PointStore points = new PointStore(dimensions, reader.getNumPoints(), precision);
+			reader.read(0, reader.getNumPoints(), points);
+			reader.close();
+
+			return points;
+		} finally {
+			fileSys.delete(path, false);
+		}
+	}
+
+	/**
+	 * Interleaved means: the first k points.
+	 */
+	public static double[] firstMeans(PointStore points, int k) {
+		return Arrays.copyOf(points.toArray(), k * points.dimensions());
+	}
+
+	/**
+	 * Names peer0:6100 .. peer(k-1):6100, in the form Hama uses.
+	 */
+	public static String[] peerNames(int k) {
+		final String[] names = new String[k];
+		for (int i = 0; i < k; i++) {
+			names[i] = "peer" + i + ":6100";
+		}
+		return names;
+	}
+
+	/**
+	 * Counts bytes sent through {@link #stubPeer}.
+	 */
+	public static class SentBytes {
+		public long bytes;
+	}
+
+	/**
+	 * A peer named {@code names[0]} that accepts and drops all sends, counting
+	 * their bytes, and never has messages to receive.
+	 */
+	public static BSPPeerProtocol stubPeer(final String[] names, final SentBytes sent) {
+
+		return (BSPPeerProtocol) Proxy.newProxyInstance(BSPPeerProtocol.class.getClassLoader(),
+				new Class<?>[] {BSPPeerProtocol.class}, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						final String name = method.getName();
+
+						if ("send".equals(name)) {
+							sent.bytes += ((BSPMessage) args[1]).getData().length;
+							return null;
+						} else if ("getPeerName".equals(name)) {
+							return names[0];
+						} else if ("getAllPeerNames".equals(name)) {
+							return names;
+						} else if (method.getReturnType() == int.class) {
+							return 0;
+						} else if (method.getReturnType() == long.class) {
+							return 0L;
+						}
+
+						return null;
+					}
+				});
+	}
+}
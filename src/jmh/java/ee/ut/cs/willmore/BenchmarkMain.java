@@ -0,0 +1,25 @@
+package ee.ut.cs.willmore;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar. Takes the usual JMH command line, e.g. a
+ * benchmark name regexp or -p k=16, and always adds the GC profiler so that
+ * allocation rates are reported next to the timings.
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws Exception {
+
+		final Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,51 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The update step of {@link KMeansCluster.ClusterBSP}: the mean of all
+ * points of one peer, from a full pass and from the running sums.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CenterBenchmark {
+
+	@Param({"10000", "100000", "1000000"})
+	public int numPoints;
+
+	private KMeansCluster.ClusterBSP cluster;
+
+	@Setup
+	public void setup() throws IOException {
+		cluster = new KMeansCluster.ClusterBSP();
+		cluster.setConf(new Configuration());
+
+		final PointStore input = BenchmarkData.generate("sphere", numPoints, 1, 3);
+		for (int i = 0; i < input.size(); i++) {
+			cluster.points.add(input, i);
+		}
+		cluster.recomputeSums();
+	}
+
+	@Benchmark
+	public DenseVector calculateCenter() {
+		return cluster.calculateCenter(cluster.points);
+	}
+
+	@Benchmark
+	public DenseVector runningCenter() {
+		return cluster.runningCenter();
+	}
+}
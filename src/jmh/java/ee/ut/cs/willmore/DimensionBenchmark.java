@@ -0,0 +1,57 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Closest mean of every point with the {@link DistanceKernel} specialized for
+ * each dimension.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DimensionBenchmark {
+
+	@Param({"2", "3", "16", "64", "256"})
+	public int dimensions;
+
+	@Param({"16"})
+	public int k;
+
+	@Param({"20000"})
+	public int numPoints;
+
+	private PointStore points;
+	private DistanceKernel kernel;
+	private double[] squared;
+
+	@Setup
+	public void setup() throws IOException {
+		points = BenchmarkData.generate("sphere", numPoints, k, dimensions);
+
+		kernel = DistanceKernel.create(k, dimensions);
+		kernel.load(BenchmarkData.firstMeans(points, k));
+		squared = new double[k];
+	}
+
+	@Benchmark
+	public long kernelNearest() {
+		long sum = 0;
+
+		final double[] coords = points.coordinates();
+		for (int i = 0; i < points.size(); i++) {
+			sum += kernel.nearest(coords, i * dimensions, squared);
+		}
+
+		return sum;
+	}
+}
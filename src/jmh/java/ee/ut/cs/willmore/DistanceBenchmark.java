@@ -0,0 +1,85 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Closest mean of every 3D point, with {@link Point3D#distance} as the
+ * original code did and with {@link DistanceKernel}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DistanceBenchmark {
+
+	@Param({"10000", "100000"})
+	public int numPoints;
+
+	@Param({"4", "16", "64"})
+	public int k;
+
+	private Point3D[] pointObjects;
+	private Point3D[] meanObjects;
+	private PointStore points;
+	private DistanceKernel kernel;
+	private double[] squared;
+
+	@Setup
+	public void setup() throws IOException {
+		points = BenchmarkData.generate("random", numPoints, k, 3);
+
+		pointObjects = new Point3D[points.size()];
+		for (int i = 0; i < pointObjects.length; i++) {
+			pointObjects[i] = new Point3D(points.get(i, 0), points.get(i, 1), points.get(i, 2));
+		}
+
+		meanObjects = new Point3D[k];
+		System.arraycopy(pointObjects, 0, meanObjects, 0, k);
+
+		kernel = DistanceKernel.create(k, 3);
+		kernel.load(BenchmarkData.firstMeans(points, k));
+		squared = new double[k];
+	}
+
+	@Benchmark
+	public long point3DDistance() {
+		long sum = 0;
+
+		for (Point3D point : pointObjects) {
+			double min = Double.MAX_VALUE;
+			int minCluster = -1;
+
+			for (int c = 0; c < k; c++) {
+				final double distance = point.distance(meanObjects[c]);
+				if (distance < min) {
+					min = distance;
+					minCluster = c;
+				}
+			}
+			sum += minCluster;
+		}
+
+		return sum;
+	}
+
+	@Benchmark
+	public long kernelNearest() {
+		long sum = 0;
+
+		final double[] coords = points.coordinates();
+		for (int i = 0; i < points.size(); i++) {
+			sum += kernel.nearest(coords, i * 3, squared);
+		}
+
+		return sum;
+	}
+}
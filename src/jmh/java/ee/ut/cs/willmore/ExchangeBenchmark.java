@@ -0,0 +1,105 @@
+package ee.ut.cs.willmore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hama.bsp.BSPPeerProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * One exchange of {@link PartialSums} between all peers, as done in every
+ * iteration of {@link PartitionedClusterBSP}: all-to-all (fanout 0) and over
+ * a {@link TreeExchange} of the given fan-out. Peers are in-memory
+ * {@link LocalPeers}, each received message costs {@code nanosPerMessage}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExchangeBenchmark {
+
+	@Param({"4", "16", "64"})
+	public int numPeers;
+
+	@Param({"0", "2", "4", "8"})
+	public int fanout;
+
+	@Param({"0", "50000"})
+	public long nanosPerMessage;
+
+	@Param({"100"})
+	public int k;
+
+	@Param({"16"})
+	public int dimensions;
+
+	private LocalPeers group;
+	private ExecutorService threads;
+	private List<Callable<PartialSums>> exchanges;
+	private long exchangesRun;
+
+	@Setup
+	public void setup() {
+		group = new LocalPeers(numPeers, nanosPerMessage);
+		threads = Executors.newFixedThreadPool(numPeers);
+		exchanges = new ArrayList<Callable<PartialSums>>(numPeers);
+
+		final Random random = new Random(0);
+
+		for (int i = 0; i < numPeers; i++) {
+			final PartialSums partial = new PartialSums(i, k, dimensions);
+			final double[] point = new double[dimensions];
+
+			for (int p = 0; p < 1000; p++) {
+				for (int d = 0; d < dimensions; d++) {
+					point[d] = random.nextGaussian();
+				}
+				partial.add(random.nextInt(k), point, 0);
+			}
+
+			final BSPPeerProtocol peer = group.peer(i);
+			final TreeExchange tree = fanout > 0 ? new TreeExchange(group.names, i, fanout) : null;
+
+			exchanges.add(new Callable<PartialSums>() {
+				@Override
+				public PartialSums call() throws Exception {
+					return PartitionedClusterBSP.allReduce(peer, group.names, tree, partial);
+				}
+			});
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.out.println();
+		System.out.println("Messages per exchange: " + (double) group.messages() / exchangesRun);
+		threads.shutdownNow();
+	}
+
+	@Benchmark
+	public PartialSums allReduce() throws Exception {
+
+		PartialSums total = null;
+
+		for (Future<PartialSums> result : threads.invokeAll(exchanges)) {
+			total = result.get();
+		}
+
+		exchangesRun++;
+
+		return total;
+	}
+}
@@ -0,0 +1,86 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hama.bsp.BSPMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encoding and decoding a point message, as sent in every assignment step of
+ * {@link KMeansCluster.ClusterBSP}: through lists of {@link DenseVector}s and
+ * in bulk between {@link PointStore}s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageBenchmark {
+
+	@Param({"100", "10000", "100000"})
+	public int numPoints;
+
+	@Param({"3", "64"})
+	public int dimensions;
+
+	@Param({"DOUBLE", "FLOAT"})
+	public Precision precision;
+
+	private List<DenseVector> message;
+	private BSPMessage encoded;
+
+	private PointStore store;
+	private int[] indices;
+	private PointStore received;
+
+	@Setup
+	public void setup() throws IOException {
+		final PointStore points = BenchmarkData.generate("random", numPoints, 1, dimensions);
+
+		final List<DenseVector> list = new ArrayList<DenseVector>(points.size());
+		for (int i = 0; i < points.size(); i++) {
+			list.add(points.get(i));
+		}
+
+		message = list;
+		encoded = KMeansCluster.ClusterBSP.pointsToByteMessage(MessageHeader.POINTS, 0, message, precision);
+
+		store = BenchmarkData.generate("random", numPoints, 1, dimensions, precision);
+		indices = new int[numPoints];
+		for (int i = 0; i < numPoints; i++) {
+			indices[i] = i;
+		}
+		received = new PointStore(dimensions, numPoints, precision);
+	}
+
+	@Benchmark
+	public BSPMessage pointsToByteMessage() throws IOException {
+		return KMeansCluster.ClusterBSP.pointsToByteMessage(MessageHeader.POINTS, 0, message, precision);
+	}
+
+	@Benchmark
+	public List<DenseVector> byteToPoints() throws IOException {
+		return KMeansCluster.ClusterBSP.byteToPoints(encoded, dimensions, precision);
+	}
+
+	@Benchmark
+	public byte[] encodeFromStore() {
+		return store.encode(indices, 0, indices.length);
+	}
+
+	@Benchmark
+	public PointStore appendToStore() {
+		received.clear();
+		received.append(ByteBuffer.wrap(encoded.getData()));
+		return received;
+	}
+}
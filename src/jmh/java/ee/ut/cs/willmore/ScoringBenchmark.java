@@ -0,0 +1,86 @@
+package ee.ut.cs.willmore;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Nearest mean queries against one {@link CentroidIndex} shared by all
+ * benchmark threads, as a server would use it. Throughput is per second over
+ * all threads; the sample time mode reports latency percentiles, p99
+ * included. Run with -t to change the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class ScoringBenchmark {
+
+	@Param({"16", "256"})
+	public int k;
+
+	@Param({"3", "16"})
+	public int dimensions;
+
+	@Param({"64"})
+	public int batch;
+
+	private CentroidIndex index;
+
+	/**
+	 * Query points of one thread.
+	 */
+	@State(Scope.Thread)
+	public static class Queries {
+
+		private double[] coords;
+		private int[] labels;
+		private int next;
+
+		@Setup
+		public void setup(ScoringBenchmark benchmark) {
+			final Random random = new Random(Thread.currentThread().getId());
+
+			coords = new double[1024 * benchmark.dimensions];
+			for (int i = 0; i < coords.length; i++) {
+				coords[i] = random.nextDouble() * BenchmarkData.RANGE;
+			}
+			labels = new int[benchmark.batch];
+		}
+	}
+
+	@Setup
+	public void setup() {
+		final Random random = new Random(0);
+
+		final double[] means = new double[k * dimensions];
+		for (int i = 0; i < means.length; i++) {
+			means[i] = random.nextDouble() * BenchmarkData.RANGE;
+		}
+
+		index = new CentroidIndex(means, dimensions);
+	}
+
+	@Benchmark
+	public int nearest(Queries queries) {
+		queries.next = (queries.next + 1) & 1023;
+		return index.nearest(queries.coords, queries.next * dimensions);
+	}
+
+	@Benchmark
+	public int[] nearestBatch(Queries queries) {
+		queries.next = (queries.next + batch) & 1023;
+		final int first = Math.min(queries.next, 1024 - batch);
+		index.nearest(queries.coords, first * dimensions, batch, queries.labels);
+		return queries.labels;
+	}
+}
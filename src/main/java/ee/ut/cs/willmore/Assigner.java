@@ -0,0 +1,135 @@
+package ee.ut.cs.willmore;
+
+import java.util.Arrays;
+
+/**
+ * The k-means assignment step over a fixed set of points: find the closest
+ * mean of every point and accumulate the per-cluster sums of the result.
+ *
+ * Implementations may keep state between calls (distance bounds, trees), so
+ * one instance must be used for one range of a {@link PointStore} whose
+ * points do not change for the lifetime of the assigner. Assigners over
+ * disjoint ranges of the same store can run concurrently.
+ */
+public abstract class Assigner {
+
+	static final String LLOYD = "lloyd";
+	static final String HAMERLY = "hamerly";
+	static final String ELKAN = "elkan";
+	static final String KDTREE = "kdtree";
+
+	protected final PointStore points;
+	protected final int k;
+	protected final int dimensions;
+
+	//The range [from, to) of points handled by this assigner
+	protected final int from;
+	protected final int to;
+
+	//Number of point to mean distances computed by the last call to assign
+	protected long distanceCount;
+
+	protected final DistanceKernel kernel;
+	//Squared distances of one point to every mean
+	protected final double[] squared;
+	//Coordinates of one point, copied out of the store
+	protected final double[] point;
+
+	protected Assigner(PointStore points, int k, int from, int to) {
+		this.points = points;
+		this.k = k;
+		this.dimensions = points.dimensions();
+		this.from = from;
+		this.to = to;
+		this.kernel = DistanceKernel.create(k, dimensions);
+		this.squared = new double[k];
+		this.point = new double[dimensions];
+	}
+
+	/**
+	 * Assign every point to its closest mean.
+	 *
+	 * @param means k interleaved means
+	 * @param assignments Cluster of every point of the store, updated in place
+	 *        for the points in my range. -1 for points not yet assigned.
+	 * @param partial Receives the sums and counts of the new assignment
+	 * @return Number of points whose cluster changed
+	 */
+	public abstract int assign(double[] means, int[] assignments, PartialSums partial);
+
+	public long getDistanceCount() {
+		return distanceCount;
+	}
+
+	/**
+	 * Add every point to the sums of its assigned cluster.
+	 */
+	protected void accumulate(int[] assignments, PartialSums partial) {
+		for (int i = from; i < to; i++) {
+			partial.add(assignments[i], points, i);
+		}
+	}
+
+	/**
+	 * Distance from {@link #point}, copied out of the store beforehand, to
+	 * mean {@code c}. Goes through the same kernel as the full scans so that
+	 * every assigner breaks near ties the same way.
+	 */
+	protected double pointDistance(double[] means, int c) {
+		return Math.sqrt(DistanceKernel.squaredDistance(point, 0, means, c * dimensions, dimensions));
+	}
+
+	/**
+	 * Distance mean {@code c} moved between {@code from} and {@code to}.
+	 */
+	protected double centerDistance(double[] from, double[] to, int c) {
+		return Math.sqrt(DistanceKernel.squaredDistance(from, c * dimensions, to, c * dimensions, dimensions));
+	}
+
+	protected double centerDistance(double[] means, int a, int b) {
+		return Math.sqrt(DistanceKernel.squaredDistance(means, a * dimensions, means, b * dimensions, dimensions));
+	}
+
+	/**
+	 * Fill {@code halfGap} with half the distance from every mean to its
+	 * closest other mean.
+	 */
+	protected void halfGaps(double[] means, int k, double[] halfGap) {
+		Arrays.fill(halfGap, Double.MAX_VALUE);
+
+		for (int a = 0; a < k; a++) {
+			for (int b = a + 1; b < k; b++) {
+				final double half = centerDistance(means, a, b) / 2;
+
+				if (half < halfGap[a]) {
+					halfGap[a] = half;
+				}
+				if (half < halfGap[b]) {
+					halfGap[b] = half;
+				}
+			}
+		}
+	}
+
+	public static Assigner create(String name, PointStore points, int k) {
+		return create(name, points, k, 0, points.size());
+	}
+
+	/**
+	 * Create an assigner for the points [from, to) of the store.
+	 */
+	public static Assigner create(String name, PointStore points, int k, int from, int to) {
+
+		if (LLOYD.equals(name)) {
+			return new LloydAssigner(points, k, from, to);
+		} else if (HAMERLY.equals(name)) {
+			return new HamerlyAssigner(points, k, from, to);
+		} else if (ELKAN.equals(name)) {
+			return new ElkanAssigner(points, k, from, to);
+		} else if (KDTREE.equals(name)) {
+			return new KdTreeAssigner(points, k, from, to);
+		}
+
+		throw new IllegalArgumentException("Unknown assignment algorithm: " + name);
+	}
+}
@@ -0,0 +1,112 @@
+package ee.ut.cs.willmore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reusable byte arrays for encoding outgoing messages, pooled at one chunk
+ * size. Hama keeps a reference to the data of every message sent until the
+ * next sync delivers it, and an in-process runner may deliver the very same
+ * array, which the receiver reads after that sync. So arrays taken during a
+ * superstep are held through two calls of {@link #release()}, which callers
+ * invoke right after every sync: by the second every receiver has read them
+ * and synced again.
+ *
+ * Tracks the bytes held by the current superstep's messages and how many of
+ * them had to be newly allocated, as a measure of transient allocation.
+ */
+public class BufferPool {
+
+	private final int chunkBytes;
+
+	private final List<byte[]> free = new ArrayList<byte[]>();
+	private final List<byte[]> taken = new ArrayList<byte[]>();
+
+	//Taken in the superstep before the last release, receivers may still read them
+	private final List<byte[]> delivered = new ArrayList<byte[]>();
+
+	//Of the current superstep
+	private long takenBytes;
+	private long allocatedBytes;
+
+	//Largest takenBytes of any superstep so far
+	private long peakBytes;
+
+	public BufferPool(int chunkBytes) {
+		if (chunkBytes < 1) {
+			throw new IllegalArgumentException("Chunk size must be positive: " + chunkBytes);
+		}
+		this.chunkBytes = chunkBytes;
+	}
+
+	public int chunkBytes() {
+		return chunkBytes;
+	}
+
+	/**
+	 * @return An array of exactly {@code length} bytes. Arrays of the chunk
+	 *         size come from the pool, the shorter last chunk of a transfer
+	 *         is allocated and not pooled.
+	 */
+	public byte[] take(int length) {
+
+		final byte[] buffer;
+
+		if (length == chunkBytes && !free.isEmpty()) {
+			buffer = free.remove(free.size() - 1);
+		} else {
+			buffer = new byte[length];
+			allocatedBytes += length;
+		}
+
+		if (length == chunkBytes) {
+			taken.add(buffer);
+		}
+
+		takenBytes += length;
+		peakBytes = Math.max(peakBytes, takenBytes);
+
+		return buffer;
+	}
+
+	/**
+	 * Return the pooled arrays taken before the last release, and hold those
+	 * taken since until the next one. Only call right after sync.
+	 */
+	public void release() {
+		free.addAll(delivered);
+		delivered.clear();
+		delivered.addAll(taken);
+		taken.clear();
+		takenBytes = 0;
+		allocatedBytes = 0;
+	}
+
+	/**
+	 * @return Bytes taken since the last release
+	 */
+	public long takenBytes() {
+		return takenBytes;
+	}
+
+	/**
+	 * @return Bytes newly allocated since the last release
+	 */
+	public long allocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * @return Most bytes taken between two releases
+	 */
+	public long peakBytes() {
+		return peakBytes;
+	}
+
+	/**
+	 * @return Bytes held by the pool for reuse
+	 */
+	public long pooledBytes() {
+		return (long) (free.size() + taken.size() + delivered.size()) * chunkBytes;
+	}
+}
@@ -0,0 +1,189 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Nearest mean lookups against the means of a finished job, to assign new
+ * points outside of any BSP job, e.g. while serving requests.
+ * <p>
+ * The means are held in one interleaved array that never changes after
+ * construction, so a single index can be shared by any number of threads
+ * without locking. Queries take their points as coordinates in a caller's
+ * array and allocate nothing. Clusters are numbered in the order of
+ * {@link PreviousModel}, that is by output file name.
+ * <p>
+ * As in {@link DistanceKernel}, means of 2 and 3 dimensions are also kept
+ * transposed, one array per dimension, for a straight pass over all means.
+ */
+public class CentroidIndex {
+
+	private final int k;
+	private final int dimensions;
+
+	//k interleaved means
+	private final double[] means;
+
+	//Coordinates of all means per dimension, for 2 and 3 dimensions only
+	private final double[] xs;
+	private final double[] ys;
+	private final double[] zs;
+
+	/**
+	 * @param means Interleaved means, copied
+	 */
+	public CentroidIndex(double[] means, int dimensions) {
+
+		if (dimensions < 1 || means.length == 0 || means.length % dimensions != 0) {
+			throw new IllegalArgumentException(means.length + " coordinates are no means of " + dimensions + " dimensions");
+		}
+
+		this.k = means.length / dimensions;
+		this.dimensions = dimensions;
+		this.means = means.clone();
+
+		this.xs = dimensions == 2 || dimensions == 3 ? column(0) : null;
+		this.ys = dimensions == 2 || dimensions == 3 ? column(1) : null;
+		this.zs = dimensions == 3 ? column(2) : null;
+	}
+
+	private double[] column(int d) {
+		final double[] column = new double[k];
+		for (int c = 0; c < k; c++) {
+			column[c] = means[c * dimensions + d];
+		}
+		return column;
+	}
+
+	/**
+	 * Index the means in the output directory of a finished job, or the
+	 * latest means published by an online job. While an online job publishes
+	 * new means this may fail, rarely, for a means file removed after the
+	 * directory was listed; loading again takes the newer one.
+	 */
+	public static CentroidIndex load(FileSystem fileSys, Path dir, int dimensions, Precision precision) throws IOException {
+		return new CentroidIndex(PreviousModel.read(fileSys, dir, dimensions, precision).means(), dimensions);
+	}
+
+	/**
+	 * @return Number of means
+	 */
+	public int size() {
+		return k;
+	}
+
+	public int dimensions() {
+		return dimensions;
+	}
+
+	/**
+	 * @return Coordinate {@code d} of mean {@code c}
+	 */
+	public double get(int c, int d) {
+		return means[c * dimensions + d];
+	}
+
+	/**
+	 * @return Index of the mean closest to {@code point}, the lowest index on
+	 *         ties
+	 */
+	public int nearest(double[] point) {
+
+		if (point.length != dimensions) {
+			throw new IllegalArgumentException("Point has " + point.length + " dimensions, means " + dimensions);
+		}
+
+		return nearest(point, 0);
+	}
+
+	/**
+	 * @return Index of the mean closest to the point at {@code offset} of
+	 *         {@code coords}, the lowest index on ties
+	 */
+	public int nearest(double[] coords, int offset) {
+
+		if (zs != null) {
+			return nearest(coords[offset], coords[offset + 1], coords[offset + 2]);
+		} else if (ys != null) {
+			return nearest(coords[offset], coords[offset + 1]);
+		}
+
+		int nearest = 0;
+		double min = DistanceKernel.squaredDistance(coords, offset, means, 0, dimensions);
+
+		for (int c = 1; c < k; c++) {
+			final double squared = DistanceKernel.squaredDistance(coords, offset, means, c * dimensions, dimensions);
+
+			if (squared < min) {
+				min = squared;
+				nearest = c;
+			}
+		}
+
+		return nearest;
+	}
+
+	private int nearest(double x, double y) {
+
+		int nearest = 0;
+		double min = Double.POSITIVE_INFINITY;
+
+		for (int c = 0; c < k; c++) {
+			final double dx = x - xs[c];
+			final double dy = y - ys[c];
+			final double squared = dx * dx + dy * dy;
+
+			if (squared < min) {
+				min = squared;
+				nearest = c;
+			}
+		}
+
+		return nearest;
+	}
+
+	private int nearest(double x, double y, double z) {
+
+		int nearest = 0;
+		double min = Double.POSITIVE_INFINITY;
+
+		for (int c = 0; c < k; c++) {
+			final double dx = x - xs[c];
+			final double dy = y - ys[c];
+			final double dz = z - zs[c];
+			final double squared = dx * dx + dy * dy + dz * dz;
+
+			if (squared < min) {
+				min = squared;
+				nearest = c;
+			}
+		}
+
+		return nearest;
+	}
+
+	/**
+	 * Write the index of the closest mean of each of {@code count} points,
+	 * interleaved in {@code coords} from {@code offset}, into {@code labels}.
+	 */
+	public void nearest(double[] coords, int offset, int count, int[] labels) {
+
+		if (offset + (long) count * dimensions > coords.length || count > labels.length) {
+			throw new IllegalArgumentException(count + " points do not fit the arrays given");
+		}
+
+		for (int i = 0; i < count; i++) {
+			labels[i] = nearest(coords, offset + i * dimensions);
+		}
+	}
+
+	/**
+	 * @return Squared distance from the point at {@code offset} of
+	 *         {@code coords} to mean {@code c}
+	 */
+	public double squaredDistance(double[] coords, int offset, int c) {
+		return DistanceKernel.squaredDistance(coords, offset, means, c * dimensions, dimensions);
+	}
+}
@@ -0,0 +1,247 @@
+package ee.ut.cs.willmore;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Checkpoints of one peer's clustering state, written every
+ * {@link KMeansCluster#CONF_CHECKPOINT_INTERVAL} iterations to
+ * {@link KMeansCluster#CONF_CHECKPOINT_DIR}, one file per peer and iteration.
+ * A job started with the same configuration resumes from the latest
+ * iteration for which every peer's file exists.
+ * <p>
+ * The caller encodes its state into a byte array, which is cheap next to an
+ * iteration. With {@link KMeansCluster#CONF_CHECKPOINT_ASYNC} the file is
+ * written behind on another thread while iterations go on, at most one
+ * write per peer at a time. Files are written under a hidden name and
+ * renamed once complete. Each peer keeps its last three checkpoints, as the
+ * latest complete one can lag up to two behind its own.
+ */
+public class Checkpoints {
+
+	public static final Log LOG = LogFactory.getLog(Checkpoints.class);
+
+	private final FileSystem fileSys;
+	private final Path dir;
+	private final int numPeers;
+	private final int myIndex;
+	private final int interval;
+
+	//Writes files behind, null to write them in the caller's thread
+	private final ExecutorService writer;
+	private Future<?> pending;
+
+	/**
+	 * @return Checkpoints as configured in {@code conf}, null when disabled
+	 */
+	static Checkpoints of(Configuration conf, FileSystem fileSys, int numPeers, int myIndex) {
+
+		final int interval = conf.getInt(KMeansCluster.CONF_CHECKPOINT_INTERVAL, 0);
+
+		if (interval <= 0) {
+			return null;
+		}
+
+		final String dir = conf.get(KMeansCluster.CONF_CHECKPOINT_DIR, conf.get(KMeansCluster.CONF_FILE_OUT) + "_checkpoint");
+
+		return new Checkpoints(fileSys, new Path(dir), numPeers, myIndex, interval,
+				conf.getBoolean(KMeansCluster.CONF_CHECKPOINT_ASYNC, true));
+	}
+
+	public Checkpoints(FileSystem fileSys, Path dir, int numPeers, int myIndex, int interval, boolean async) {
+		this.fileSys = fileSys;
+		this.dir = dir;
+		this.numPeers = numPeers;
+		this.myIndex = myIndex;
+		this.interval = interval;
+		this.writer = async ? Executors.newSingleThreadExecutor() : null;
+	}
+
+	public boolean isDue(int iteration) {
+		return iteration > 0 && iteration % interval == 0;
+	}
+
+	/**
+	 * @return The latest iteration all peers wrote a checkpoint of, -1 if
+	 *         none
+	 */
+	public int latest() throws IOException {
+
+		final FileStatus[] listing = list();
+
+		if (listing == null) {
+			return -1;
+		}
+
+		//Peers that wrote each iteration
+		final Map<Integer, Integer> written = new HashMap<Integer, Integer>();
+
+		for (FileStatus status : listing) {
+			final String[] parts = status.getPath().getName().split("-");
+
+			if (parts.length != 3 || !parts[0].equals("iteration")) {
+				continue;
+			}
+
+			final int iteration = Integer.parseInt(parts[1]);
+			final Integer count = written.get(iteration);
+			written.put(iteration, count == null ? 1 : count + 1);
+		}
+
+		int latest = -1;
+
+		for (Map.Entry<Integer, Integer> entry : written.entrySet()) {
+			if (entry.getValue() == numPeers && entry.getKey() > latest) {
+				latest = entry.getKey();
+			}
+		}
+
+		return latest;
+	}
+
+	/**
+	 * @return The files in the checkpoint directory, null if there is none.
+	 *         Other peers add and remove their files meanwhile, and a file
+	 *         removed between listing the names and their status fails the
+	 *         listing, so it is taken again.
+	 */
+	private FileStatus[] list() throws IOException {
+
+		for (int attempt = 1;; attempt++) {
+			try {
+				return fileSys.exists(dir) ? fileSys.listStatus(dir) : null;
+			} catch (FileNotFoundException e) {
+				if (attempt == 10) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return My state of {@code iteration}, as passed to {@link #write}
+	 */
+	public byte[] read(int iteration) throws IOException {
+
+		final Path path = path(iteration);
+		final byte[] state = new byte[(int) fileSys.getFileStatus(path).getLen()];
+		final FSDataInputStream in = fileSys.open(path);
+
+		try {
+			in.readFully(state);
+		} finally {
+			in.close();
+		}
+
+		return state;
+	}
+
+	/**
+	 * Write my {@code state} of {@code iteration}, behind if configured so.
+	 * Waits for my previous write first.
+	 */
+	public void write(final int iteration, final byte[] state) throws IOException {
+
+		awaitPending();
+
+		final Runnable write = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					final long start = System.currentTimeMillis();
+					final Path partial = new Path(dir, "_" + path(iteration).getName());
+
+					final FSDataOutputStream out = fileSys.create(partial, true);
+					out.write(state);
+					out.close();
+
+					fileSys.rename(partial, path(iteration));
+
+					final Path old = path(iteration - 3 * interval);
+					if (fileSys.exists(old)) {
+						fileSys.delete(old, false);
+					}
+
+					LOG.info("Checkpoint of iteration " + iteration + " written, " + state.length + " bytes in "
+							+ (System.currentTimeMillis() - start) + " ms");
+				} catch (IOException e) {
+					throw new RuntimeException("Could not write checkpoint of iteration " + iteration, e);
+				}
+			}
+		};
+
+		if (writer == null) {
+			write.run();
+		} else {
+			pending = writer.submit(write);
+		}
+	}
+
+	/**
+	 * Wait for the last write and remove my checkpoints, once the job no
+	 * longer needs them.
+	 */
+	public void finish() throws IOException {
+
+		awaitPending();
+
+		final FileStatus[] listing = list();
+
+		if (listing != null) {
+			for (FileStatus status : listing) {
+				if (status.getPath().getName().endsWith("-" + myIndex)) {
+					fileSys.delete(status.getPath(), false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop the write-behind thread, whether or not the job succeeded. A write
+	 * under way still completes.
+	 */
+	public void close() {
+		if (writer != null) {
+			writer.shutdown();
+		}
+	}
+
+	private void awaitPending() throws IOException {
+
+		if (pending == null) {
+			return;
+		}
+
+		try {
+			pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for a checkpoint");
+		} catch (ExecutionException e) {
+			final IOException failure = new IOException(e.getCause().getMessage());
+			failure.initCause(e.getCause());
+			throw failure;
+		} finally {
+			pending = null;
+		}
+	}
+
+	private Path path(int iteration) {
+		return new Path(dir, "iteration-" + iteration + "-" + myIndex);
+	}
+}
@@ -0,0 +1,212 @@
+package ee.ut.cs.willmore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Stopping rules checked after every iteration, in addition to the exact
+ * fixed point of each mode (no mean moved, or no point changed cluster).
+ * Iteration stops as soon as any rule is met.
+ * <ul>
+ * <li>{@link KMeansCluster#CONF_CONVERGE_SHIFT}: no mean moved further than
+ * this distance.</li>
+ * <li>{@link KMeansCluster#CONF_CONVERGE_CHANGES}: less than this fraction of
+ * all points changed cluster.</li>
+ * <li>{@link KMeansCluster#CONF_CONVERGE_WCSS}: the within cluster sum of
+ * squares improved by less than this fraction of its previous value.</li>
+ * <li>{@link KMeansCluster#CONF_CONVERGE_ITERATIONS}: this many iterations
+ * are done.</li>
+ * </ul>
+ * All peers feed the same global figures in, so they stop together.
+ */
+public class Convergence {
+
+	public static final Log LOG = LogFactory.getLog(Convergence.class);
+
+	/**
+	 * Global figures of one iteration. Figures a mode did not gather are
+	 * NaN or -1, rules that need them are never met.
+	 */
+	public static class Iteration {
+
+		//Iterations done so far, this one included
+		final int number;
+
+		//Largest distance any mean moved, infinite for the first means
+		final double maxShift;
+
+		//Points that changed cluster and total number of points
+		final long changes;
+		final long points;
+
+		//Within cluster sum of squares, NaN if not computed
+		final double wcss;
+
+		public Iteration(int number, double maxShift, long changes, long points, double wcss) {
+			this.number = number;
+			this.maxShift = maxShift;
+			this.changes = changes;
+			this.points = points;
+			this.wcss = wcss;
+		}
+	}
+
+	/**
+	 * One stopping rule. Rules may keep state between iterations.
+	 */
+	public interface Rule {
+		boolean isMet(Iteration iteration);
+	}
+
+	private final List<Rule> rules = new ArrayList<Rule>();
+	private boolean needsWcss;
+
+	/**
+	 * @return The rules configured in {@code conf}, none by default
+	 */
+	public static Convergence of(Configuration conf) {
+
+		final Convergence convergence = new Convergence();
+
+		final double shift = Double.parseDouble(conf.get(KMeansCluster.CONF_CONVERGE_SHIFT, "-1"));
+		final double changes = Double.parseDouble(conf.get(KMeansCluster.CONF_CONVERGE_CHANGES, "-1"));
+		final double wcss = Double.parseDouble(conf.get(KMeansCluster.CONF_CONVERGE_WCSS, "-1"));
+		final int iterations = conf.getInt(KMeansCluster.CONF_CONVERGE_ITERATIONS, 0);
+
+		if (shift >= 0) {
+			convergence.add(maxShift(shift));
+		}
+		if (changes >= 0) {
+			convergence.add(changedFraction(changes));
+		}
+		if (wcss >= 0) {
+			convergence.add(wcssImprovement(wcss));
+			convergence.needsWcss = true;
+		}
+		if (iterations > 0) {
+			convergence.add(maxIterations(iterations));
+		}
+
+		return convergence;
+	}
+
+	public Convergence add(Rule rule) {
+		rules.add(rule);
+		return this;
+	}
+
+	public boolean hasRules() {
+		return !rules.isEmpty();
+	}
+
+	/**
+	 * @return Whether a rule needs {@link Iteration#wcss}, which costs
+	 *         modes a pass over the points
+	 */
+	public boolean needsWcss() {
+		return needsWcss;
+	}
+
+	/**
+	 * Check every rule, so that stateful rules see every iteration.
+	 */
+	public boolean isConverged(Iteration iteration) {
+
+		boolean met = false;
+
+		for (Rule rule : rules) {
+			if (rule.isMet(iteration)) {
+				LOG.info("Iteration " + iteration.number + " met " + rule);
+				met = true;
+			}
+		}
+
+		return met;
+	}
+
+	static Rule maxShift(final double epsilon) {
+		return new Rule() {
+			@Override
+			public boolean isMet(Iteration iteration) {
+				return iteration.maxShift <= epsilon;
+			}
+
+			@Override
+			public String toString() {
+				return "mean shift <= " + epsilon;
+			}
+		};
+	}
+
+	static Rule changedFraction(final double fraction) {
+		return new Rule() {
+			@Override
+			public boolean isMet(Iteration iteration) {
+				return iteration.changes >= 0 && iteration.points > 0
+						&& iteration.changes < fraction * iteration.points;
+			}
+
+			@Override
+			public String toString() {
+				return "changed fraction < " + fraction;
+			}
+		};
+	}
+
+	static Rule wcssImprovement(final double relative) {
+		return new Rule() {
+
+			private double previous = Double.NaN;
+
+			@Override
+			public boolean isMet(Iteration iteration) {
+				final double before = previous;
+
+				if (!Double.isNaN(iteration.wcss)) {
+					previous = iteration.wcss;
+				}
+
+				return !Double.isNaN(before) && !Double.isNaN(iteration.wcss)
+						&& before - iteration.wcss < relative * before;
+			}
+
+			@Override
+			public String toString() {
+				return "relative WCSS improvement < " + relative;
+			}
+		};
+	}
+
+	static Rule maxIterations(final int iterations) {
+		return new Rule() {
+			@Override
+			public boolean isMet(Iteration iteration) {
+				return iteration.number >= iterations;
+			}
+
+			@Override
+			public String toString() {
+				return "iteration limit " + iterations;
+			}
+		};
+	}
+
+	/**
+	 * @return Largest Euclidean distance between corresponding means of two
+	 *         sets of k interleaved means
+	 */
+	static double maxShift(double[] before, double[] after, int dimensions) {
+
+		double max = 0;
+
+		for (int offset = 0; offset < before.length; offset += dimensions) {
+			max = Math.max(max, DistanceKernel.squaredDistance(before, offset, after, offset, dimensions));
+		}
+
+		return Math.sqrt(max);
+	}
+}
@@ -20,10 +20,10 @@ public class CubeRandomPointGenerator implements PointGenerator {
 		
 		private final Random random = new Random();
 		
-		private Point3D center;
+		private DenseVector center;
 		private double radius;
 
-		Sphere(Point3D center, double radius) {
+		Sphere(DenseVector center, double radius) {
 			this.center = center;
 			this.radius = radius;
 		}
@@ -32,11 +32,12 @@ public class CubeRandomPointGenerator implements PointGenerator {
 		 * 
 		 * @return Random point within sphere
 		 */
-		Point3D randomPoint() {
-			double x = (center.x - radius) + random.nextDouble() * (2 * radius);
-			double y = (center.y - radius) + random.nextDouble() * (2 * radius);
-			double z = (center.z - radius) + random.nextDouble() * (2 * radius);
-			return new Point3D(x,y,z);
+		DenseVector randomPoint() {
+			final double[] values = new double[center.dimensions()];
+			for (int d = 0; d < values.length; d++) {
+				values[d] = (center.get(d) - radius) + random.nextDouble() * (2 * radius);
+			}
+			return new DenseVector(values);
 		}
 	}
 	
@@ -53,7 +54,7 @@ public class CubeRandomPointGenerator implements PointGenerator {
 	/**
 	 * Create a randomly generated dataset of points saved on the Hadoop
 	 * file-system at the specified {@code fileName}. 
-	 * {@code numPoints} of 3D double-value points, with X,Y,Z each within [0,{@code range}).
+	 * {@code numPoints} points of {@code dimensions} coordinates in {@code precision}, each within [0,{@code range}).
 	 * 
 	 * @param fileSys
 	 * @param fileName
@@ -62,34 +63,34 @@ public class CubeRandomPointGenerator implements PointGenerator {
 	 * @throws IOException
 	 */
 	@Override
-	public void generateSourceFile(FileSystem fileSys, Path fileName, int numPoints, int range, int noise, int dimensions) throws IOException {
+	public void generateSourceFile(FileSystem fileSys, Path fileName, int numPoints, int range, int noise, int dimensions, Precision precision) throws IOException {
 		
 		final FSDataOutputStream out = fileSys.create(fileName, true);
+		final PointWriter writer = new PointWriter(out, precision);
 		
 		out.writeInt(numPoints + noise);
 		
 		final List<Sphere> spheres = new ArrayList<Sphere>(numSpheres);
 		
 		for (int i = 0; i < numSpheres; i++) {
-			spheres.add(new Sphere(new Point3D(random.nextDouble()*range, 
-											   random.nextDouble()*range, 
-											   random.nextDouble()*range),
-									radius));
+			final double[] center = new double[dimensions];
+			for (int d = 0; d < dimensions; d++) {
+				center[d] = random.nextDouble()*range;
+			}
+			
+			spheres.add(new Sphere(new DenseVector(center), radius));
 		}
 		
 		for (int i = 0; i < numPoints; i++) {
 			
 			Sphere randomSphere = spheres.get(random.nextInt(numSpheres));
-			Point3D randomPoint = randomSphere.randomPoint();
-			out.writeDouble(randomPoint.x); // X
-			out.writeDouble(randomPoint.y); // Y 
-			out.writeDouble(dimensions == 2 ? 0 : randomPoint.z); // Z		
+			writer.write(randomSphere.randomPoint());
 		}
 		
 		for (int i = 0; i < noise; i++) {
-			out.writeDouble(random.nextDouble()*range); // X
-			out.writeDouble(random.nextDouble()*range); // Y 
-			out.writeDouble(dimensions == 2 ? 0 :random.nextDouble()*range); // Z
+			for (int d = 0; d < dimensions; d++) {
+				precision.write(out, random.nextDouble()*range);
+			}
 		}
 		
 		out.close();
@@ -0,0 +1,66 @@
+package ee.ut.cs.willmore;
+
+import java.util.Arrays;
+
+/**
+ * A point or mean with any number of dimensions. The dimension of a job is
+ * configured once, see {@link KMeansCluster#CONF_DIMENSIONS}. Bulk point data
+ * lives in {@link PointStore}; this type is for single points and means.
+ */
+public class DenseVector {
+
+	private final double[] values;
+
+	public DenseVector(double... values) {
+		this.values = values;
+	}
+
+	/**
+	 * Copy {@code dimensions} values starting at {@code offset} of {@code array}.
+	 */
+	public static DenseVector copyOf(double[] array, int offset, int dimensions) {
+		final double[] values = new double[dimensions];
+		System.arraycopy(array, offset, values, 0, dimensions);
+		return new DenseVector(values);
+	}
+
+	public int dimensions() {
+		return values.length;
+	}
+
+	public double get(int d) {
+		return values[d];
+	}
+
+	/**
+	 * @return The backing array, not to be modified
+	 */
+	double[] values() {
+		return values;
+	}
+
+	public double distance(DenseVector that) {
+		return Math.sqrt(DistanceKernel.squaredDistance(values, 0, that.values, 0, values.length));
+	}
+
+	@Override
+	public String toString() {
+		return "Vector " + Arrays.toString(values);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(values);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		return Arrays.equals(values, ((DenseVector) obj).values);
+	}
+}
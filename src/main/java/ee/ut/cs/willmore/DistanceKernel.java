@@ -0,0 +1,207 @@
+package ee.ut.cs.willmore;
+
+/**
+ * Squared Euclidean distance from one point to a block of means at once.
+ * Finding the closest mean only needs distances to be compared, so no square
+ * root is taken.
+ *
+ * {@link #create} picks a loop specialized for the dimension. For 2 and 3
+ * dimensions the means are transposed into one array per dimension, which
+ * turns the loop over means into a straight, branch free pass the JIT
+ * compiles to SIMD instructions where the CPU has them. For higher dimensions
+ * the means stay row by row and the loop over a point's coordinates is
+ * unrolled into independent sums instead.
+ */
+public abstract class DistanceKernel {
+
+	protected final int k;
+
+	protected DistanceKernel(int k) {
+		this.k = k;
+	}
+
+	public static DistanceKernel create(int k, int dimensions) {
+		switch (dimensions) {
+		case 2:
+			return new TwoDimensional(k);
+		case 3:
+			return new ThreeDimensional(k);
+		default:
+			return new AnyDimensional(k, dimensions);
+		}
+	}
+
+	/**
+	 * Load the means to compare against.
+	 *
+	 * @param means k interleaved means
+	 */
+	public abstract void load(double[] means);
+
+	/**
+	 * Write the squared distance from the point at {@code offset} of
+	 * {@code coords} to every mean into {@code out}.
+	 */
+	public abstract void squaredDistances(double[] coords, int offset, double[] out);
+
+	/**
+	 * @param out Scratch space of at least k, holding the squared distance to
+	 *        every mean afterwards
+	 * @return Index of the mean closest to the point at {@code offset} of
+	 *         {@code coords}, the lowest index on ties
+	 */
+	public int nearest(double[] coords, int offset, double[] out) {
+		squaredDistances(coords, offset, out);
+		return argMin(out, k);
+	}
+
+	static int argMin(double[] values, int length) {
+		int min = 0;
+
+		for (int c = 1; c < length; c++) {
+			if (values[c] < values[min]) {
+				min = c;
+			}
+		}
+
+		return min;
+	}
+
+	/**
+	 * Squared distance between the points at {@code aOffset} of {@code a} and
+	 * {@code bOffset} of {@code b}, both interleaved arrays of
+	 * {@code dimensions} coordinates per point.
+	 */
+	public static double squaredDistance(double[] a, int aOffset, double[] b, int bOffset, int dimensions) {
+
+		if (dimensions == 3) {
+			final double dx = a[aOffset] - b[bOffset];
+			final double dy = a[aOffset + 1] - b[bOffset + 1];
+			final double dz = a[aOffset + 2] - b[bOffset + 2];
+			return dx * dx + dy * dy + dz * dz;
+		} else if (dimensions == 2) {
+			final double dx = a[aOffset] - b[bOffset];
+			final double dy = a[aOffset + 1] - b[bOffset + 1];
+			return dx * dx + dy * dy;
+		}
+
+		double sum0 = 0;
+		double sum1 = 0;
+		double sum2 = 0;
+		double sum3 = 0;
+
+		final int unrolled = dimensions & ~3;
+		int d = 0;
+
+		for (; d < unrolled; d += 4) {
+			final double d0 = a[aOffset + d] - b[bOffset + d];
+			final double d1 = a[aOffset + d + 1] - b[bOffset + d + 1];
+			final double d2 = a[aOffset + d + 2] - b[bOffset + d + 2];
+			final double d3 = a[aOffset + d + 3] - b[bOffset + d + 3];
+			sum0 += d0 * d0;
+			sum1 += d1 * d1;
+			sum2 += d2 * d2;
+			sum3 += d3 * d3;
+		}
+
+		for (; d < dimensions; d++) {
+			final double delta = a[aOffset + d] - b[bOffset + d];
+			sum0 += delta * delta;
+		}
+
+		return (sum0 + sum1) + (sum2 + sum3);
+	}
+
+	private static class TwoDimensional extends DistanceKernel {
+
+		private final double[] xs;
+		private final double[] ys;
+
+		TwoDimensional(int k) {
+			super(k);
+			this.xs = new double[k];
+			this.ys = new double[k];
+		}
+
+		@Override
+		public void load(double[] means) {
+			for (int c = 0; c < k; c++) {
+				xs[c] = means[c * 2];
+				ys[c] = means[c * 2 + 1];
+			}
+		}
+
+		@Override
+		public void squaredDistances(double[] coords, int offset, double[] out) {
+			final double x = coords[offset];
+			final double y = coords[offset + 1];
+
+			for (int c = 0; c < k; c++) {
+				final double dx = x - xs[c];
+				final double dy = y - ys[c];
+				out[c] = dx * dx + dy * dy;
+			}
+		}
+	}
+
+	private static class ThreeDimensional extends DistanceKernel {
+
+		private final double[] xs;
+		private final double[] ys;
+		private final double[] zs;
+
+		ThreeDimensional(int k) {
+			super(k);
+			this.xs = new double[k];
+			this.ys = new double[k];
+			this.zs = new double[k];
+		}
+
+		@Override
+		public void load(double[] means) {
+			for (int c = 0; c < k; c++) {
+				xs[c] = means[c * 3];
+				ys[c] = means[c * 3 + 1];
+				zs[c] = means[c * 3 + 2];
+			}
+		}
+
+		@Override
+		public void squaredDistances(double[] coords, int offset, double[] out) {
+			final double x = coords[offset];
+			final double y = coords[offset + 1];
+			final double z = coords[offset + 2];
+
+			for (int c = 0; c < k; c++) {
+				final double dx = x - xs[c];
+				final double dy = y - ys[c];
+				final double dz = z - zs[c];
+				out[c] = dx * dx + dy * dy + dz * dz;
+			}
+		}
+	}
+
+	private static class AnyDimensional extends DistanceKernel {
+
+		private final int dimensions;
+		private final double[] means;
+
+		AnyDimensional(int k, int dimensions) {
+			super(k);
+			this.dimensions = dimensions;
+			this.means = new double[k * dimensions];
+		}
+
+		@Override
+		public void load(double[] means) {
+			System.arraycopy(means, 0, this.means, 0, this.means.length);
+		}
+
+		@Override
+		public void squaredDistances(double[] coords, int offset, double[] out) {
+			for (int c = 0; c < k; c++) {
+				out[c] = squaredDistance(coords, offset, means, c * dimensions, dimensions);
+			}
+		}
+	}
+}
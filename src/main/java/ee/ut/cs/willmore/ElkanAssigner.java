@@ -0,0 +1,171 @@
+package ee.ut.cs.willmore;
+
+/**
+ * Exact assignment with Elkan's bounds: an upper bound on the distance to the
+ * assigned mean plus a lower bound per point and mean, together with all
+ * mean to mean distances. Prunes far more distance computations than
+ * {@link HamerlyAssigner} when k is large, at the cost of O(n*k) memory.
+ */
+public class ElkanAssigner extends Assigner {
+
+	//Upper bound of point i at [i - from]
+	private final double[] upper;
+
+	//Lower bound of point i to mean c at [(i - from) * k + c]
+	private final double[] lower;
+
+	//Half the distance between means a and b at [a * k + b]
+	private final double[] halfDistance;
+	private final double[] halfGap;
+	private final double[] moved;
+
+	private double[] previousMeans;
+
+	public ElkanAssigner(PointStore points, int k, int from, int to) {
+		super(points, k, from, to);
+		this.upper = new double[to - from];
+		this.lower = new double[lowerLength(to - from, k)];
+		this.halfDistance = new double[k * k];
+		this.halfGap = new double[k];
+		this.moved = new double[k];
+	}
+
+	/**
+	 * Size of the lower bound array, counted in long as n * k easily passes
+	 * the int range for big partitions.
+	 */
+	static int lowerLength(int n, int k) {
+		final long length = (long) n * k;
+
+		//Some VMs reserve a few header words in arrays
+		if (length > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Elkan needs " + length + " lower bounds for " + n
+					+ " points and k=" + k + ", more than an array can hold. Use more peers or "
+					+ Assigner.HAMERLY + " instead");
+		}
+
+		return (int) length;
+	}
+
+	@Override
+	public int assign(double[] means, int[] assignments, PartialSums partial) {
+
+		distanceCount = 0;
+
+		kernel.load(means);
+
+		for (int a = 0; a < k; a++) {
+			for (int b = a + 1; b < k; b++) {
+				final double half = centerDistance(means, a, b) / 2;
+				halfDistance[a * k + b] = half;
+				halfDistance[b * k + a] = half;
+			}
+		}
+		halfGaps(means, k, halfGap);
+
+		int changeCount = 0;
+
+		if (previousMeans == null) {
+
+			for (int i = from; i < to; i++) {
+				changeCount += initialScan(i, means, assignments);
+			}
+
+			previousMeans = means.clone();
+
+		} else {
+
+			for (int c = 0; c < k; c++) {
+				moved[c] = centerDistance(previousMeans, means, c);
+			}
+
+			for (int i = from; i < to; i++) {
+
+				final int row = (i - from) * k;
+
+				for (int c = 0; c < k; c++) {
+					lower[row + c] = Math.max(lower[row + c] - moved[c], 0);
+				}
+
+				int a = assignments[i];
+				double u = upper[i - from] + moved[a];
+
+				if (u <= halfGap[a]) {
+					upper[i - from] = u;
+					continue;
+				}
+
+				boolean tight = false;
+
+				for (int c = 0; c < k; c++) {
+
+					if (c == a || u <= lower[row + c] || u <= halfDistance[a * k + c]) {
+						continue;
+					}
+
+					if (!tight) {
+						points.copy(i, point, 0);
+						u = pointDistance(means, a);
+						lower[row + a] = u;
+						distanceCount++;
+						tight = true;
+
+						if (u <= lower[row + c] || u <= halfDistance[a * k + c]) {
+							continue;
+						}
+					}
+
+					final double distance = pointDistance(means, c);
+					lower[row + c] = distance;
+					distanceCount++;
+
+					if (distance < u) {
+						a = c;
+						u = distance;
+					}
+				}
+
+				upper[i - from] = u;
+
+				if (assignments[i] != a) {
+					assignments[i] = a;
+					changeCount += 1;
+				}
+			}
+
+			System.arraycopy(means, 0, previousMeans, 0, means.length);
+		}
+
+		accumulate(assignments, partial);
+
+		return changeCount;
+	}
+
+	/**
+	 * Compare point {@code i} against every mean, making all its bounds exact.
+	 *
+	 * @return 1 if the point changed cluster, 0 otherwise
+	 */
+	private int initialScan(int i, double[] means, int[] assignments) {
+
+		final int row = (i - from) * k;
+
+		points.copy(i, point, 0);
+		final int minCluster = kernel.nearest(point, 0, squared);
+
+		for (int c = 0; c < k; c++) {
+			lower[row + c] = Math.sqrt(squared[c]);
+		}
+
+		distanceCount += k;
+
+		upper[i - from] = lower[row + minCluster];
+
+		if (assignments[i] != minCluster) {
+			assignments[i] = minCluster;
+			return 1;
+		}
+
+		return 0;
+	}
+}
@@ -0,0 +1,139 @@
+package ee.ut.cs.willmore;
+
+/**
+ * Exact assignment with Hamerly's bounds: one upper bound on the distance to
+ * the assigned mean and one lower bound on the distance to every other mean
+ * per point. A point is only rescanned when its upper bound exceeds both its
+ * lower bound and half the distance from its mean to the closest other mean.
+ * Needs O(n) extra memory, which makes it the better choice for small k.
+ */
+public class HamerlyAssigner extends Assigner {
+
+	//Bounds of point i at [i - from]
+	private final double[] upper;
+	private final double[] lower;
+
+	//Half the distance from each mean to its closest other mean
+	private final double[] halfGap;
+	private final double[] moved;
+
+	private double[] previousMeans;
+
+	public HamerlyAssigner(PointStore points, int k, int from, int to) {
+		super(points, k, from, to);
+		this.upper = new double[to - from];
+		this.lower = new double[to - from];
+		this.halfGap = new double[k];
+		this.moved = new double[k];
+	}
+
+	@Override
+	public int assign(double[] means, int[] assignments, PartialSums partial) {
+
+		distanceCount = 0;
+
+		kernel.load(means);
+		halfGaps(means, k, halfGap);
+
+		int changeCount = 0;
+
+		if (previousMeans == null) {
+
+			for (int i = from; i < to; i++) {
+				changeCount += scan(i, means, assignments);
+			}
+
+			previousMeans = means.clone();
+
+		} else {
+
+			//The largest movement of any mean other than the one a point is
+			//assigned to bounds how much closer another mean can have come
+			int farthest = 0;
+			double maxMove = 0;
+			double secondMove = 0;
+
+			for (int c = 0; c < k; c++) {
+				moved[c] = centerDistance(previousMeans, means, c);
+
+				if (moved[c] > maxMove) {
+					secondMove = maxMove;
+					maxMove = moved[c];
+					farthest = c;
+				} else if (moved[c] > secondMove) {
+					secondMove = moved[c];
+				}
+			}
+
+			for (int i = from; i < to; i++) {
+
+				final int a = assignments[i];
+				final int b = i - from;
+
+				upper[b] += moved[a];
+				lower[b] -= (a == farthest) ? secondMove : maxMove;
+
+				final double bound = Math.max(halfGap[a], lower[b]);
+
+				if (upper[b] <= bound) {
+					continue;
+				}
+
+				points.copy(i, point, 0);
+				upper[b] = pointDistance(means, a);
+				distanceCount++;
+
+				if (upper[b] <= bound) {
+					continue;
+				}
+
+				changeCount += scan(i, means, assignments);
+			}
+
+			System.arraycopy(means, 0, previousMeans, 0, means.length);
+		}
+
+		accumulate(assignments, partial);
+
+		return changeCount;
+	}
+
+	/**
+	 * Compare point {@code i} against every mean and reset its bounds.
+	 *
+	 * @return 1 if the point changed cluster, 0 otherwise
+	 */
+	private int scan(int i, double[] means, int[] assignments) {
+
+		points.copy(i, point, 0);
+		kernel.squaredDistances(point, 0, squared);
+
+		double min = Double.MAX_VALUE;
+		double second = Double.MAX_VALUE;
+		int minCluster = -1;
+
+		for (int c = 0; c < k; c++) {
+			final double distance = squared[c];
+
+			if (distance < min) {
+				second = min;
+				min = distance;
+				minCluster = c;
+			} else if (distance < second) {
+				second = distance;
+			}
+		}
+
+		distanceCount += k;
+
+		upper[i - from] = Math.sqrt(min);
+		lower[i - from] = Math.sqrt(second);
+
+		if (assignments[i] != minCluster) {
+			assignments[i] = minCluster;
+			return 1;
+		}
+
+		return 0;
+	}
+}
@@ -3,11 +3,16 @@ package ee.ut.cs.willmore;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -18,7 +23,6 @@ import org.apache.commons.cli.ParseException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hama.HamaConfiguration;
@@ -36,6 +40,72 @@ public class KMeansCluster {
 	static final String CONF_FILE_OUT = "output.";
 	static String CONF_MASTER_TASK = "master.task.";
 	static String CONF_FILE_SOURCE = "source.";
+	static final String CONF_MODE = "mode.";
+	static final String CONF_K = "k.";
+	static final String CONF_ASSIGN = "assign.";
+	static final String CONF_THREADS = "threads.";
+	static final String CONF_INIT = "init.";
+	static final String CONF_INIT_ROUNDS = "init.rounds.";
+	static final String CONF_INIT_OVERSAMPLING = "init.oversampling.";
+	static final String CONF_SEED = "seed.";
+	static final String CONF_BATCH = "batch.";
+	static final String CONF_BATCH_ITERATIONS = "batch.iterations.";
+	static final String CONF_BATCH_LABELS = "batch.labels.";
+	static final String CONF_DIMENSIONS = "dimensions.";
+	static final String CONF_FLOAT = "float.";
+	static final String CONF_CHUNK = "chunk.";
+	static final String CONF_STREAM = "stream.";
+	static final String CONF_CENTER_RECOMPUTE = "center.recompute.";
+	static final String CONF_CONVERGE_SHIFT = "converge.shift.";
+	static final String CONF_CONVERGE_CHANGES = "converge.changes.";
+	static final String CONF_CONVERGE_WCSS = "converge.wcss.";
+	static final String CONF_CONVERGE_ITERATIONS = "converge.iterations.";
+	static final String CONF_TREE_FANOUT = "tree.fanout.";
+	static final String CONF_DELTA_TOLERANCE = "delta.tolerance.";
+	static final String CONF_ONLINE_DECAY = "online.decay.";
+	static final String CONF_ONLINE_PUBLISH = "online.publish.";
+	static final String CONF_ONLINE_POLL = "online.poll.";
+	static final String CONF_ONLINE_ROUND_FILES = "online.round.files.";
+	static final String CONF_CHECKPOINT_INTERVAL = "checkpoint.interval.";
+	static final String CONF_CHECKPOINT_DIR = "checkpoint.dir.";
+	static final String CONF_CHECKPOINT_ASYNC = "checkpoint.async.";
+	static final String CONF_WARM_START = "warm.start.";
+	static final String CONF_WARM_ITERATIONS = "warm.iterations.";
+	
+	//Dimension of jobs that do not configure one, matching 3D source files
+	static final int DEFAULT_DIMENSIONS = 3;
+	
+	//Largest point message in migrate mode
+	static final int DEFAULT_CHUNK_BYTES = 1 << 20;
+	
+	//Update steps between full recomputes of the running sums in migrate mode
+	static final int DEFAULT_CENTER_RECOMPUTE = 16;
+	
+	//Wait between looking for new batch files in online mode
+	static final long DEFAULT_ONLINE_POLL_MILLIS = 1000;
+	
+	static final String MODE_MIGRATE = "migrate";
+	static final String MODE_PARTITION = "partition";
+	static final String MODE_ONLINE = "online";
+	
+	/**
+	 * @return All peer names in an order every peer agrees on.
+	 */
+	static String[] sortedPeerNames(BSPPeerProtocol bspPeer) {
+		final String[] peers = bspPeer.getAllPeerNames().clone();
+		Arrays.sort(peers);
+		return peers;
+	}
+	
+	static int indexOf(String[] peers, String peer) {
+		final int index = Arrays.binarySearch(peers, peer);
+		
+		if (index < 0) {
+			throw new RuntimeException("Unknown peer: " + peer);
+		}
+		
+		return index;
+	}
 	
 
 	public static class ClusterBSP extends BSP {
@@ -45,8 +115,6 @@ public class KMeansCluster {
 		private FileSystem fileSys;
 		private String masterTask;
 		
-		static final String POINT_MSG_TAG = "POINTS";
-
 		
 		/*		
 		while (true) {	
@@ -76,41 +144,266 @@ public class KMeansCluster {
 		}
 		
 		//Map of peer name => cluster center (mean)
-		final Map<String, Point3D> peerMeanMap = new HashMap<String, Point3D>();
+		final Map<String, DenseVector> peerMeanMap = new HashMap<String, DenseVector>();
+		
+		//All peer names in sorted order, message headers carry indexes into it
+		private String[] peers;
+		private int myIndex;
+		
+		//Tree to exchange means and figures over, null for all-to-all. Over
+		//a tree, messages for all peers wait in outgoing for the exchange.
+		private TreeExchange tree;
+		private final List<BSPMessage> outgoing = new ArrayList<BSPMessage>();
+		
+		//Writes my state every few iterations, null when not checkpointing
+		private Checkpoints checkpoints;
+		
+		//Set by the mean handler while processing one superstep's messages
+		private boolean converged;
+		private double maxSquaredShift;
+		
+		//Stopping rules besides all means staying the same, fed with the
+		//figures of the last assignment step that every peer broadcasts,
+		//only while a rule or the delta tolerance needs them
+		private Convergence convergence;
+		private int statsReceived;
+		private long globalChanges;
+		private long globalPoints;
+		private double[] peerWcss;
+		
+		//Only broadcast my mean once it moved further than this from the
+		//value all peers hold, which they keep using meanwhile. Negative to
+		//broadcast every update step, 0 to skip unchanged means.
+		private double deltaTolerance;
+		private long globalSuppressed;
+		private long suppressedTotal;
+		
+		//Points I assigned in my last assignment step and their squared
+		//distances to the new means, 0 unless a rule needs them
+		private long assignedPoints;
+		private double assignedWcss;
+		
+		private final MessageDispatcher dispatcher = new MessageDispatcher()
+			.register(MessageHeader.POINTS, new MessageDispatcher.Handler() {
+				@Override
+				public void handle(BSPMessage msg) {
+					final int first = points.size();
+					points.append(ByteBuffer.wrap(msg.getData()));
+					
+					for (int i = first; i < points.size(); i++) {
+						points.addTo(i, sums, 0);
+					}
+					moved = true;
+				}
+			})
+			.register(MessageHeader.MEAN, new MessageDispatcher.Handler() {
+				@Override
+				public void handle(BSPMessage msg) throws IOException {
+					converged = updateMeanMap(msg) && converged;
+				}
+			})
+			.register(MessageHeader.STATS, new MessageDispatcher.Handler() {
+				@Override
+				public void handle(BSPMessage msg) {
+					final ByteBuffer buffer = ByteBuffer.wrap(msg.getData());
+					globalChanges += buffer.getLong();
+					globalPoints += buffer.getLong();
+					peerWcss[MessageHeader.index(msg)] = buffer.getDouble();
+					globalSuppressed += buffer.getLong();
+					statsReceived++;
+				}
+			});
+		
+		private int dimensions;
+		private Precision precision;
 		
 		//All points currently in my cluster
-		final List<Point3D> points = new ArrayList<Point3D>();
+		PointStore points;
+		
+		//Coordinate sums of my points, updated as points arrive and leave so
+		//the mean does not need a pass over all points. Rounding errors add
+		//up, so they are recomputed every recomputeInterval update steps in
+		//which points moved. Without moves the mean must stay bit-identical
+		//for peers to see convergence.
+		double[] sums;
+		private int recomputeInterval;
+		private int sinceRecompute;
+		private boolean moved;
+		
+		//Encode buffers of outgoing point chunks, reused after every sync
+		BufferPool buffers;
+		
+		//Send every chunk as soon as it fills during the assignment step
+		boolean stream;
+		
+		//Threads used for assignment and center calculation, pool is null when 1
+		private int threads;
+		private ExecutorService pool;
 				
 		@Override
 		public void bsp(final BSPPeerProtocol bspPeer) throws IOException,
 				KeeperException, InterruptedException {
 		
-			if (isMaster(bspPeer)) {
-				masterInitialize(bspPeer);	
+			if (threads > 1) {
+				pool = Executors.newFixedThreadPool(threads);
 			}
 			
-			while (true) {
+			try {
+				peers = sortedPeerNames(bspPeer);
+				myIndex = indexOf(peers, bspPeer.getPeerName());
 				
-				bspPeer.sync();
+				tree = TreeExchange.of(conf, peers, myIndex);
+				checkpoints = Checkpoints.of(conf, fileSys, peers.length, myIndex);
 				
-				boolean converged = processMessages(bspPeer);
-								
-				if (converged) {
-					break;
+				//All peers find the same latest checkpoint, so either all resume or none
+				int iteration = checkpoints == null ? -1 : checkpoints.latest();
+				boolean resumed = iteration >= 0;
+				
+				if (resumed) {
+					restore(checkpoints.read(iteration));
+					LOG.info("Resumed from the checkpoint of iteration " + iteration + " with " + points.size() + " points");
+				} else {
+					iteration = 0;
+					
+					loadPartition(peers, myIndex);
+					
+					final PointReader masterReader = isMaster(bspPeer) ? openSource() : null;
+					
+					final double[] initMeans = Seeding.choose(conf, bspPeer, peers, myIndex, points, peers.length, masterReader);
+					
+					if (masterReader != null) {
+						masterReader.close();
+						masterInitialize(bspPeer, initMeans);	
+					}
 				}
 				
-				//send new assignments
-				assignmentStep(bspPeer); 
+				peerWcss = new double[peers.length];
 				
-				//Calculate my mean and broadcast it.
-				updateStep(bspPeer); 
-			} 
+				while (true) {
 					
-			double wcss = wcss(bspPeer);
+					//A checkpoint is taken right before an assignment step, resume there
+					if (!resumed) {
+						boolean converged = processMessages(bspPeer);
+						
+						if (converged || convergence.isConverged(lastIteration(iteration))) {
+							break;
+						}
+						
+						if (checkpoints != null && checkpoints.isDue(iteration)) {
+							checkpoints.write(iteration, checkpointState());
+						}
+					}
+					resumed = false;
+					
+					//send new assignments
+					final int changeCount = assignmentStep(bspPeer); 
+					iteration++;
+					
+					//Calculate my mean and broadcast it.
+					updateStep(bspPeer, changeCount); 
+				} 
+						
+				double wcss = wcss(bspPeer);
+				
+				LOG.info("My WCSS is " + wcss);
+				
+				if (deltaTolerance >= 0) {
+					LOG.info("Mean broadcasts I suppressed: " + suppressedTotal + " of " + iteration);
+				}
+				
+				LOG.info("Peak point chunk bytes in one superstep: " + buffers.peakBytes()
+						+ ", pooled: " + buffers.pooledBytes());
+				
+				writeFinalOutput(bspPeer);
+				
+				if (checkpoints != null) {
+					checkpoints.finish();
+				}
+			} finally {
+				if (pool != null) {
+					pool.shutdown();
+				}
+				if (checkpoints != null) {
+					checkpoints.close();
+				}
+			}
+		}
+		
+		/**
+		 * Encode my state at the start of an assignment step: my points, their
+		 * running sums and the means of all peers as I know them.
+		 */
+		byte[] checkpointState() {
+			
+			final int recordBytes = dimensions * precision.bytes;
+			final ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + points.size() * recordBytes + dimensions * 8
+					+ 4 + 1 + 4 + peerMeanMap.size() * (4 + dimensions * 8));
+			
+			buffer.putInt(dimensions);
+			buffer.putInt(points.size());
+			for (int i = 0; i < points.size(); i++) {
+				points.put(i, buffer);
+			}
+			
+			for (int d = 0; d < dimensions; d++) {
+				buffer.putDouble(sums[d]);
+			}
+			buffer.putInt(sinceRecompute);
+			buffer.put((byte) (moved ? 1 : 0));
+			
+			buffer.putInt(peerMeanMap.size());
+			for (int p = 0; p < peers.length; p++) {
+				final DenseVector mean = peerMeanMap.get(peers[p]);
+				
+				if (mean != null) {
+					buffer.putInt(p);
+					for (int d = 0; d < dimensions; d++) {
+						buffer.putDouble(mean.get(d));
+					}
+				}
+			}
+			
+			return buffer.array();
+		}
+		
+		/**
+		 * Take over the state encoded by {@link #checkpointState()}.
+		 */
+		void restore(byte[] state) {
 			
-			LOG.info("My WCSS is " + wcss);
+			final ByteBuffer buffer = ByteBuffer.wrap(state);
+			
+			if (buffer.getInt() != dimensions) {
+				throw new RuntimeException("Checkpoint is of another dimension");
+			}
+			
+			final int size = buffer.getInt();
+			final int recordBytes = dimensions * precision.bytes;
+			
+			final ByteBuffer records = buffer.slice();
+			records.limit(size * recordBytes);
+			
+			points.clear();
+			points.append(records);
+			buffer.position(buffer.position() + size * recordBytes);
+			
+			for (int d = 0; d < dimensions; d++) {
+				sums[d] = buffer.getDouble();
+			}
+			sinceRecompute = buffer.getInt();
+			moved = buffer.get() != 0;
 			
-			writeFinalOutput(bspPeer);	
+			peerMeanMap.clear();
+			final int means = buffer.getInt();
+			for (int m = 0; m < means; m++) {
+				final String peer = peers[buffer.getInt()];
+				final double[] mean = new double[dimensions];
+				
+				for (int d = 0; d < dimensions; d++) {
+					mean[d] = buffer.getDouble();
+				}
+				peerMeanMap.put(peer, new DenseVector(mean));
+			}
 		}
 
 		
@@ -126,66 +419,81 @@ public class KMeansCluster {
 			
 			assert(peerMeanMap.containsKey(bsp.getPeerName()));
 			
-			final Point3D mean = peerMeanMap.get(bsp.getPeerName());
+			final double[] meanCoords = peerMeanMap.get(bsp.getPeerName()).values();
 
-			for (Point3D point : points){
-				sum += point.distance(mean);
+			for (int i = 0; i < points.size(); i++){
+				sum += points.squaredDistance(i, meanCoords, 0);
 			}
 			
 			return sum;
 		}
 
-		private boolean processMessages(BSPPeerProtocol bspPeer) throws IOException {
+		/**
+		 * Figures for the stopping rules from the messages just processed.
+		 * The assignment step figures are only complete once every peer has
+		 * sent them, i.e. not before the first assignment step.
+		 */
+		private Convergence.Iteration lastIteration(int iteration) {
 			
-			boolean converged = true;
+			if (statsReceived < peers.length) {
+				return new Convergence.Iteration(iteration, Math.sqrt(maxSquaredShift), -1, 0, Double.NaN);
+			}
 			
-			BSPMessage msg;
-			while ((msg = bspPeer.getCurrentMessage()) != null) {
-				if (isPointMessage(msg)) {
-					addPoints(msg);
-				} else if (isMeanMessage(bspPeer, msg)) {
-					converged = updateMeanMap(msg) && converged;
-				} else {
-					throw new RuntimeException("Unknown msg tag: " + new String(msg.getTag()));
-				}
+			double wcss = 0;
+			for (double peer : peerWcss) {
+				wcss += peer;
 			}
 			
+			return new Convergence.Iteration(iteration, Math.sqrt(maxSquaredShift), globalChanges, globalPoints,
+					convergence.needsWcss() ? wcss : Double.NaN);
+		}
+		
+		/**
+		 * Finish the superstep and process the points, means and figures it
+		 * delivered.
+		 */
+		private boolean processMessages(BSPPeerProtocol bspPeer) throws IOException,
+				KeeperException, InterruptedException {
+			
+			converged = true;
+			maxSquaredShift = 0;
+			statsReceived = 0;
+			globalChanges = 0;
+			globalPoints = 0;
+			globalSuppressed = 0;
+			
+			if (tree == null) {
+				bspPeer.sync();
+				recycleBuffers();
+				dispatcher.dispatch(bspPeer);
+			} else {
+				tree.allGather(bspPeer, outgoing, dispatcher);
+				outgoing.clear();
+				recycleBuffers();
+			}
 			
 			LOG.info("New Mean Map = " + peerMeanMap);
 			
+			if (deltaTolerance >= 0 && statsReceived == peers.length) {
+				LOG.info("Means not broadcast this superstep: " + globalSuppressed + " of " + peers.length);
+			}
+			
 			return converged;
 		}
 
 		private boolean updateMeanMap(BSPMessage msg) throws IOException {
-			PointMessage pMsg = byteToPointMessage(msg);
+			final DenseVector mean = byteToPoints(msg, dimensions, Precision.DOUBLE).get(0);
+			final String peer = peers[MessageHeader.index(msg)];
 			
-			boolean converged = pMsg.getData().get(0).equals(peerMeanMap.get(pMsg.getTag()));
+			final DenseVector previous = peerMeanMap.get(peer);
+			boolean converged = mean.equals(previous);
 			
-			peerMeanMap.put(pMsg.getTag(), pMsg.getData().get(0));
+			maxSquaredShift = Math.max(maxSquaredShift, previous == null ? Double.POSITIVE_INFINITY
+					: DistanceKernel.squaredDistance(previous.values(), 0, mean.values(), 0, dimensions));
 			
-			return converged;
-		}
-
-		private void addPoints(BSPMessage msg) throws IOException {
-
-			points.addAll(byteToPointMessage(msg).getData());
-		}
-
-		private boolean isMeanMessage(BSPPeerProtocol bspPeer, BSPMessage msg) {
-			//Mean maps use the peer name as the tag
-			final String tag = new String(msg.getTag());
+			peerMeanMap.put(peer, mean);
 			
-			for (String peer : bspPeer.getAllPeerNames()) {
-				if (peer.equals(tag)) {
-					return true;
-				}
-			}
-			
-			return false;
-		}
-
-		private boolean isPointMessage(BSPMessage msg) {
-			return POINT_MSG_TAG.equals(new String(msg.getTag()));
+			return converged;
 		}
 
 		private void writeFinalOutput(final BSPPeerProtocol bspPeer) throws IOException {
@@ -194,89 +502,106 @@ public class KMeansCluster {
 			
 			LOG.info("Writing final output to: " + fileName);
 			
-			PointWriter writer = new PointWriter(fileSys.create(new Path(fileName), true));
+			PointWriter writer = new PointWriter(fileSys.create(new Path(fileName), true), precision);
 			
-			writer.write(calculateCenter(points));
+			writer.write(runningCenter());
 			writer.write(points);
 			
 			writer.close();
+			
+			if (isMaster(bspPeer)) {
+				final PointReader reader = openSource();
+				PreviousModel.writeSource(fileSys, new Path(conf.get(CONF_FILE_OUT)), conf.get(CONF_FILE_SOURCE),
+						reader.getNumPoints());
+				reader.close();
+			}
 		}
 		
-		private static BSPMessage pointToByteMessage(PointMessage pm) throws IOException {
+		/**
+		 * Encode the points in {@code precision}. Means are always sent as
+		 * doubles, migrating points in the precision of the store.
+		 * 
+		 * @param type {@link MessageHeader#POINTS} or {@link MessageHeader#MEAN}
+		 * @param index Sender for points, owner of the cluster for a mean
+		 */
+		static BSPMessage pointsToByteMessage(byte type, int index, List<DenseVector> points, Precision precision) throws IOException {
 				
-			ByteBuffer buffer = ByteBuffer.allocate(pm.getData().size() * 3 * 8);
+			final int dimensions = points.isEmpty() ? 0 : points.get(0).dimensions();
+			
+			ByteBuffer buffer = ByteBuffer.allocate(points.size() * dimensions * precision.bytes);
 		    
-			for (Point3D p : pm.getData()) {
-				buffer.putDouble(p.x);
-				buffer.putDouble(p.y);
-				buffer.putDouble(p.z);
+			for (DenseVector p : points) {
+				for (int d = 0; d < dimensions; d++) {
+					precision.put(buffer, p.get(d));
+				}
 			}
 		   
-			return new BSPMessage(pm.getTag().getBytes(), buffer.array());		
+			return MessageHeader.create(type, index, points.size(), buffer.array());		
 		}
 		
 
-		private static PointMessage byteToPointMessage(BSPMessage bMsg) throws IOException {
+		/**
+		 * Decode a message of {@code dimensions} coordinates in
+		 * {@code precision} per point. Dimension and precision are part of
+		 * the job configuration and not sent.
+		 */
+		static List<DenseVector> byteToPoints(BSPMessage bMsg, int dimensions, Precision precision) throws IOException {
 						
+			final int count = MessageHeader.count(bMsg);
 			
 			ByteBuffer buffer = ByteBuffer.wrap(bMsg.getData());
 			
-			List<Point3D> points = new ArrayList<Point3D>();
+			List<DenseVector> points = new ArrayList<DenseVector>(count);
 			
-			while (buffer.hasRemaining()) {	
-				points.add(new Point3D(buffer.getDouble(), buffer.getDouble(), buffer.getDouble()));
+			for (int i = 0; i < count; i++) {	
+				final double[] values = new double[dimensions];
+				for (int d = 0; d < dimensions; d++) {
+					values[d] = precision.get(buffer);
+				}
+				points.add(new DenseVector(values));
 			}
 		
-			return new PointMessage(new String(bMsg.getTag()), points);			
+			return points;			
 		}
 		
 
 
-		private void masterInitialize(final BSPPeerProtocol bspPeer) throws IOException {
-
-			LOG.info("Starting Master");
-			
-			final Path srcFilePath = new Path(conf.get(CONF_FILE_SOURCE));
-
-			if (!fileSys.exists(srcFilePath)) {
-				throw new RuntimeException("Could not find source file:" + srcFilePath.getName());
-			}
+		/**
+		 * Every peer reads its own contiguous slice of the source file, so the
+		 * input is loaded in parallel rather than all through the master.
+		 */
+		private void loadPartition(final String[] peers, final int myIndex) throws IOException {
 			
-			final FSDataInputStream srcFile = fileSys.open(srcFilePath);
+			final PointReader reader = openSource();
 			
-			final int numPoints = srcFile.readInt();
+			reader.readSlice(myIndex, peers.length, points);
+			reader.close();
 			
-			LOG.info("Number of points is: " + numPoints);
+			recomputeSums();
 			
-			for (int i = 0; i < numPoints; i++) {
-				points.add(new Point3D(srcFile.readDouble(), 
-									   srcFile.readDouble(), 
-									   srcFile.readDouble()));
-			}
+			LOG.info("Loaded " + points.size() + " points as slice " + myIndex + " of " + peers.length);
+		}
+		
+		private PointReader openSource() throws IOException {
+			return PointReader.open(fileSys, new Path(conf.get(CONF_FILE_SOURCE)), dimensions, precision);
+		}
+
+		private void masterInitialize(final BSPPeerProtocol bspPeer, final double[] initMeans) throws IOException {
+
+			LOG.info("Starting Master");
 			
-			//Assign one mean to each node
-			//Means are chosen "randomly" from points
+			//Assign one mean to each node, by index in the sorted peer names
 
-			final Map<String, Point3D> initPeerMeanMap = new HashMap<String, Point3D>();
+			final List<BSPMessage> initMeanMessages = new ArrayList<BSPMessage>(peers.length);
 			
-			int ctr = 0; 
-			for (final String peer : bspPeer.getAllPeerNames()) {
-				Point3D p = points.get(ctr++);
-				initPeerMeanMap.put(peer, p);
+			for (int c = 0; c < peers.length; c++) {
+				DenseVector p = DenseVector.copyOf(initMeans, c * dimensions, dimensions);
+				initMeanMessages.add(pointsToByteMessage(MessageHeader.MEAN, c, Collections.singletonList(p), Precision.DOUBLE));
 			}
 			
 			// Broadcast all peer => mean pairs
-			for (final String peer : bspPeer.getAllPeerNames()) {
-
-				LOG.info("Sending intial means to: " + peer);
-				
-				for (final Map.Entry<String, Point3D> peerMean : initPeerMeanMap.entrySet()) {
-	
-					PointMessage msg = new PointMessage(peerMean.getKey(),
-							peerMean.getValue());
-					bspPeer.send(peer, pointToByteMessage(msg));
-
-				}
+			for (final BSPMessage msg : initMeanMessages) {
+				broadcast(bspPeer, msg);
 			}
 			
 			LOG.info("Initial point messages sent to peers");
@@ -284,110 +609,441 @@ public class KMeansCluster {
 
 
 		//Perform K-Means assignment step, sending points to appropriate BSPPeer
-		private int assignmentStep(final BSPPeerProtocol bspPeer) throws IOException {
-						
-			//For each of my points, find new best cluster by geometric distance.			
-			final Map<String, List<Point3D>> peerNewPoints = new HashMap<String, List<Point3D>>();
+		int assignmentStep(final BSPPeerProtocol bspPeer) throws IOException {
 			
-			for (String peer : peerMeanMap.keySet()) {
-				peerNewPoints.put(peer, new ArrayList<Point3D>());
-			}
+			final String[] meanPeers = peerMeanMap.keySet().toArray(new String[peerMeanMap.size()]);
+			final double[] means = new double[meanPeers.length * dimensions];
+			int me = -1;
 			
-			int changeCount = 0;
-						
-			for (Iterator<Point3D> pointItr = points.iterator(); pointItr.hasNext();) {
+			for (int c = 0; c < meanPeers.length; c++) {
+				System.arraycopy(peerMeanMap.get(meanPeers[c]).values(), 0, means, c * dimensions, dimensions);
 				
-				final Point3D obs = pointItr.next();
-				
-				double min = Double.MAX_VALUE;
-				String minPeer = null;
+				if (meanPeers[c].equals(bspPeer.getPeerName())) {
+					me = c;
+				}
+			}
+			
+			final int mine = me;
+			
+			final DistanceKernel kernel = DistanceKernel.create(meanPeers.length, dimensions);
+			kernel.load(means);
+			
+			//For each of my points, find new best cluster by geometric distance.
+			final int[] destinations = new int[points.size()];
+			
+			//Squared distance of every point to its new mean, for the WCSS
+			final double[] costs = convergence.needsWcss() ? new double[points.size()] : null;
+			
+			final int changeCount = stream 
+					? streamAssignment(bspPeer, meanPeers, mine, kernel, destinations, costs)
+					: batchAssignment(bspPeer, meanPeers, mine, kernel, destinations, costs);
+			
+			assignedPoints = destinations.length;
+			assignedWcss = 0;
+			
+			if (costs != null) {
+				for (double cost : costs) {
+					assignedWcss += cost;
+				}
+			}
+			
+			//Remove the points I no longer own. Walking backwards, the point
+			//swapped into each hole has already been kept.
+			for (int i = destinations.length - 1; i >= 0; i--) {
+				if (destinations[i] != mine) {
+					points.subtractFrom(i, sums, 0);
+					points.swapRemove(i);
+					moved = true;
+				}
+			}
 				
-				for (Map.Entry<String, Point3D> peer : peerMeanMap.entrySet()) {
-					double distance = obs.distance(peer.getValue());
+			return changeCount;
+		}
+		
+		/**
+		 * Assign all points first, then send the points leaving me grouped by
+		 * destination.
+		 * 
+		 * @return Number of points sent
+		 */
+		private int batchAssignment(final BSPPeerProtocol bspPeer, final String[] meanPeers, final int mine,
+				final DistanceKernel kernel, final int[] destinations, final double[] costs) throws IOException {
+			
+			runSlices(points.size(), new SliceTask<Void>() {
+				@Override
+				public Void run(int from, int to) {
+					
+					final double[] squared = new double[meanPeers.length];
+					final double[] point = new double[dimensions];
 					
-					if (distance < min) {
-						min = distance;
-						minPeer = peer.getKey();
+					for (int i = from; i < to; i++) {
+						points.copy(i, point, 0);
+						destinations[i] = kernel.nearest(point, 0, squared);
+						
+						if (costs != null) {
+							costs[i] = squared[destinations[i]];
+						}
 					}
+					
+					return null;
 				}
+			});
+			
+			//Group the point indexes by destination, in ascending order
+			final int[] start = new int[meanPeers.length + 1];
+			for (int destination : destinations) {
+				start[destination + 1]++;
+			}
+			for (int c = 0; c < meanPeers.length; c++) {
+				start[c + 1] += start[c];
+			}
+			
+			final int[] next = Arrays.copyOf(start, meanPeers.length);
+			final int[] byDestination = new int[destinations.length];
+			for (int i = 0; i < destinations.length; i++) {
+				byDestination[next[destinations[i]]++] = i;
+			}
+			
+			int changeCount = 0;
+			
+			//Notify other clusters of new points, encoded straight from my
+			//store in chunks of at most the pool's chunk size
+			final int recordBytes = dimensions * precision.bytes;
+			final int chunkRecords = buffers.chunkBytes() / recordBytes;
+			
+			for (int c = 0; c < meanPeers.length; c++) {
+				
+				final int count = start[c + 1] - start[c];
 				
-				if (minPeer.equals(bspPeer.getPeerName())) {
-					//I don't send updates for points I already own
+				if (c == mine || count == 0) {
 					continue;
 				}
 				
-				//Remove the point from my collection as I no longer own it.
-				pointItr.remove();
-				changeCount += 1;
-				peerNewPoints.get(minPeer).add(obs);	
+				changeCount += count;
+				
+				LOG.info("Send " + count + " to " + meanPeers[c]);
+				
+				for (int from = start[c]; from < start[c + 1]; from += chunkRecords) {
+					final int to = Math.min(from + chunkRecords, start[c + 1]);
+					final byte[] data = buffers.take((to - from) * recordBytes);
+					
+					points.encode(byDestination, from, to, data);
+					bspPeer.send(meanPeers[c], MessageHeader.create(MessageHeader.POINTS, myIndex, to - from, data));
+				}
 			}
 			
+			return changeCount;
+		}
+		
+		/**
+		 * Assign and send at the same time: every slice keeps one chunk per
+		 * destination and hands it to {@code bspPeer.send} as soon as it is
+		 * full, so encoding and queueing the chunks overlaps with the
+		 * remaining distance computations. Only the partly filled last chunks
+		 * wait until all points are assigned.
+		 * 
+		 * @return Number of points sent
+		 */
+		private int streamAssignment(final BSPPeerProtocol bspPeer, final String[] meanPeers, final int mine,
+				final DistanceKernel kernel, final int[] destinations, final double[] costs) {
 			
-			//Notify other clusters of new points	
-			for (Map.Entry<String, List<Point3D>> peerPoints : peerNewPoints.entrySet()) {
+			final int recordBytes = dimensions * precision.bytes;
+			
+			final List<Integer> sliceChanges = runSlices(points.size(), new SliceTask<Integer>() {
+				@Override
+				public Integer run(int from, int to) {
+					
+					final ByteBuffer[] chunks = new ByteBuffer[meanPeers.length];
+					final double[] squared = new double[meanPeers.length];
+					final double[] point = new double[dimensions];
+					int changes = 0;
+					
+					for (int i = from; i < to; i++) {
+						points.copy(i, point, 0);
+						final int c = kernel.nearest(point, 0, squared);
+						
+						destinations[i] = c;
+						
+						if (costs != null) {
+							costs[i] = squared[c];
+						}
+						
+						if (c == mine) {
+							continue;
+						}
+						
+						if (chunks[c] == null) {
+							chunks[c] = ByteBuffer.wrap(takeBuffer(buffers.chunkBytes()));
+						}
+						
+						points.put(i, chunks[c]);
+						changes++;
+						
+						if (!chunks[c].hasRemaining()) {
+							sendChunk(bspPeer, meanPeers[c], chunks[c].array());
+							chunks[c] = null;
+						}
+					}
+					
+					for (int c = 0; c < meanPeers.length; c++) {
+						if (chunks[c] != null) {
+							final byte[] data = takeBuffer(chunks[c].position());
+							System.arraycopy(chunks[c].array(), 0, data, 0, data.length);
+							sendChunk(bspPeer, meanPeers[c], data);
+						}
+					}
+					
+					return changes;
+				}
 				
-				if (peerPoints.getValue().size() == 0) {
-					continue;
+				private byte[] takeBuffer(int length) {
+					synchronized (buffers) {
+						return buffers.take(length);
+					}
 				}
 				
-				LOG.info("Send " + peerPoints.getValue().size() + " to " + peerPoints.getKey());
-				bspPeer.send(peerPoints.getKey(), 
-						     pointToByteMessage(new PointMessage(POINT_MSG_TAG, peerPoints.getValue())));
+				private void sendChunk(BSPPeerProtocol bspPeer, String peer, byte[] data) {
+					try {
+						synchronized (bspPeer) {
+							bspPeer.send(peer, MessageHeader.create(MessageHeader.POINTS, myIndex, data.length / recordBytes, data));
+						}
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+			
+			int changeCount = 0;
+			
+			for (int changes : sliceChanges) {
+				changeCount += changes;
 			}
-				
+			
+			LOG.info("Streamed " + changeCount + " points to other clusters");
+			
 			return changeCount;
 		}
 
 	
+		/**
+		 * Report the point chunks encoded in the last superstep and make
+		 * the buffers of the one before available again, see
+		 * {@link BufferPool#release()}. Call right after sync only.
+		 */
+		void recycleBuffers() {
+			
+			if (buffers.takenBytes() > 0) {
+				LOG.info("Encoded " + buffers.takenBytes() + " bytes of points in the last superstep, "
+						+ buffers.allocatedBytes() + " newly allocated");
+			}
+			
+			buffers.release();
+		}
+		
 		/**
 		 * Perform the KMeans Update Step. 
 		 * {@link http://en.wikipedia.org/wiki/K-means_clustering#Standard_algorithm}
 		 * 
-		 * Receive PointMessages from peers that notify me of new points
-		 * assigned to my cluster. Calculate the new geometric center of my
-		 * cluster.
+		 * Points that peers assigned to my cluster have been received and
+		 * added to the running sums, the new geometric center of my cluster
+		 * is the sums over the point count.
 		 * 
 		 * @param bspPeer
 		 * @throws IOException
 		 */
-		private void updateStep(BSPPeerProtocol bspPeer) throws IOException {	
+		private void updateStep(BSPPeerProtocol bspPeer, int changeCount) throws IOException {	
 				
 			LOG.info("My point count is now: " + points.size());
+			
+			//Catch initial case where we have no points, and thus can't change our mean.
+			DenseVector mean = null;
+			boolean suppressed = false;
+			
+			if (0 != points.size()) {
+				if (moved && ++sinceRecompute >= recomputeInterval) {
+					recomputeSums();
+				}
+				moved = false;
+				
+				mean = runningCenter();
+				suppressed = withinTolerance(mean);
+			}
+			
+			//Without rules or tolerance nobody reads the figures, spare the P^2 messages
+			if (convergence.hasRules() || deltaTolerance >= 0) {
+				broadcastStats(bspPeer, changeCount, suppressed);
+			}
+			
+			if (suppressed) {
+				suppressedTotal++;
+			} else if (mean != null) {
+				broadcastMyMean(bspPeer, mean);
+			}
+		}
 		
-			if (0 == points.size()) {
-				//Catch initial case where we have no points, and thus can't change our mean.
-				return;
+		/**
+		 * @return Whether {@code mean} is within the delta tolerance of the
+		 *         mean all peers last received from me
+		 */
+		private boolean withinTolerance(DenseVector mean) {
+			
+			final DenseVector known = peerMeanMap.get(peers[myIndex]);
+			
+			return deltaTolerance >= 0 && known != null && DistanceKernel.squaredDistance(known.values(), 0,
+					mean.values(), 0, dimensions) <= deltaTolerance * deltaTolerance;
+		}
+		
+		/**
+		 * @return The mean of my points from the running sums, the origin
+		 *         when I have none
+		 */
+		DenseVector runningCenter() {
+			
+			final double[] center = new double[dimensions];
+			
+			if (!points.isEmpty()) {
+				for (int d = 0; d < dimensions; d++) {
+					center[d] = sums[d] / points.size();
+				}
 			}
 			
-			broadcastMyMean(bspPeer, calculateCenter(points));
+			return new DenseVector(center);
+		}
+		
+		/**
+		 * Replace the running sums by sums over all points, dropping the
+		 * rounding error the incremental updates accumulated.
+		 */
+		void recomputeSums() {
+			sums = sum(points);
+			sinceRecompute = 0;
+		}
+		
+		/**
+		 * Send the figures of my last assignment step to all peers: points
+		 * sent away, points assigned, their squared distances to the new
+		 * means and whether I suppressed my mean broadcast. Only sent when a
+		 * stopping rule or the delta tolerance is configured.
+		 */
+		private void broadcastStats(BSPPeerProtocol bspPeer, int changeCount, boolean suppressed) throws IOException {
+			
+			final ByteBuffer buffer = ByteBuffer.allocate(8 + 8 + 8 + 8);
+			buffer.putLong(changeCount);
+			buffer.putLong(assignedPoints);
+			buffer.putDouble(assignedWcss);
+			buffer.putLong(suppressed ? 1 : 0);
+			
+			broadcast(bspPeer, MessageHeader.create(MessageHeader.STATS, myIndex, 1, buffer.array()));
 		}
 		
 		/**
-		 * Send my mean as a PointMessage to all peers.
+		 * Send my mean to all peers.
 		 * @param bspPeer
 		 * @throws IOException
 		 */
-		private void broadcastMyMean(BSPPeerProtocol bspPeer, Point3D mean) throws IOException {
+		private void broadcastMyMean(BSPPeerProtocol bspPeer, DenseVector mean) throws IOException {
 			
-			final BSPMessage msg = pointToByteMessage(new PointMessage(bspPeer.getPeerName(), mean));
+			broadcast(bspPeer, pointsToByteMessage(MessageHeader.MEAN, myIndex, Collections.singletonList(mean), Precision.DOUBLE));
+		}
+		
+		/**
+		 * Send {@code msg} to all peers, or hold it for the next tree exchange.
+		 */
+		private void broadcast(BSPPeerProtocol bspPeer, BSPMessage msg) throws IOException {
+			
+			if (tree != null) {
+				outgoing.add(msg);
+				return;
+			}
 			
-			for (String peer : bspPeer.getAllPeerNames()) {
+			for (String peer : peers) {
 				bspPeer.send(peer, msg);
 			}
 		}
 
-		private Point3D calculateCenter(List<Point3D> points) {
-			double x = 0;
-			double y = 0;
-			double z = 0;
+		/**
+		 * The mean of {@code points} from a full pass over them.
+		 */
+		DenseVector calculateCenter(final PointStore points) {
+			
+			final double[] center = sum(points);
 			
-			for (Point3D p : points) {
-				x += p.x / points.size();
-				y += p.y / points.size();
-				z += p.z / points.size();
+			for (int d = 0; d < dimensions; d++) {
+				center[d] /= points.size();
 			}
 			
-			return new Point3D(x, y, z);
+			return new DenseVector(center);
+		}
+		
+		/**
+		 * @return Coordinate sums of all {@code points}
+		 */
+		private double[] sum(final PointStore points) {
+			
+			final List<double[]> sliceSums = runSlices(points.size(), new SliceTask<double[]>() {
+				@Override
+				public double[] run(int from, int to) {
+					final double[] sums = new double[dimensions];
+					
+					for (int i = from; i < to; i++) {
+						points.addTo(i, sums, 0);
+					}
+					
+					return sums;
+				}
+			});
+			
+			final double[] total = new double[dimensions];
+			
+			for (double[] sums : sliceSums) {
+				for (int d = 0; d < dimensions; d++) {
+					total[d] += sums[d];
+				}
+			}
+			
+			return total;
+		}
+		
+		/**
+		 * Work on the point range [from, to).
+		 */
+		private interface SliceTask<T> {
+			T run(int from, int to);
+		}
+		
+		/**
+		 * Split [0, size) into one slice per thread and run {@code task} on
+		 * each slice in the pool.
+		 * 
+		 * @return Results in slice order
+		 */
+		private <T> List<T> runSlices(final int size, final SliceTask<T> task) {
+			
+			if (pool == null || size < threads) {
+				return Collections.singletonList(task.run(0, size));
+			}
+			
+			final List<Future<T>> futures = new ArrayList<Future<T>>(threads);
+			
+			for (int t = 0; t < threads; t++) {
+				final int from = PointReader.sliceStart(size, t, threads);
+				final int to = PointReader.sliceStart(size, t + 1, threads);
+				
+				futures.add(pool.submit(new Callable<T>() {
+					@Override
+					public T call() {
+						return task.run(from, to);
+					}
+				}));
+			}
+			
+			final List<T> results = new ArrayList<T>(threads);
+			
+			for (Future<T> future : futures) {
+				results.add(ParallelAssigner.get(future));
+			}
+			
+			return results;
 		}
 
 		private boolean isMaster(BSPPeerProtocol bspPeer) {
@@ -405,6 +1061,19 @@ public class KMeansCluster {
 		public void setConf(Configuration conf) {
 			this.conf = conf;
 			this.masterTask = conf.get(CONF_MASTER_TASK);
+			this.threads = conf.getInt(CONF_THREADS, 1);
+			this.dimensions = conf.getInt(CONF_DIMENSIONS, DEFAULT_DIMENSIONS);
+			this.precision = Precision.of(conf);
+			this.points = new PointStore(dimensions, precision);
+			this.stream = conf.getBoolean(CONF_STREAM, false);
+			this.deltaTolerance = Double.parseDouble(conf.get(CONF_DELTA_TOLERANCE, "-1"));
+			this.convergence = Convergence.of(conf);
+			this.sums = new double[dimensions];
+			this.recomputeInterval = Math.max(1, conf.getInt(CONF_CENTER_RECOMPUTE, DEFAULT_CENTER_RECOMPUTE));
+			
+			//Whole records per chunk, at least one
+			final int recordBytes = dimensions * precision.bytes;
+			this.buffers = new BufferPool(Math.max(1, conf.getInt(CONF_CHUNK, DEFAULT_CHUNK_BYTES) / recordBytes) * recordBytes);
 
 			try {
 				fileSys = FileSystem.get(conf);
@@ -422,13 +1091,44 @@ public class KMeansCluster {
 		Options options = new Options();
 
 		options.addOption("points", true, "Number of points (observations). Default value is 1000.");
+		options.addOption("source", true, "Cluster this existing source file instead of generating one. It must match -dimensions, -float and -sparse. Not for online mode, see -watch.");
 		options.addOption("k", true, "Number of clusters. Default value is the number of BSPPeers.");
+		options.addOption("mode", true, "migrate|partition|online. Default migrate, one cluster per BSPPeer. partition keeps a fixed share of the points on each BSPPeer and allows any k. online clusters batch files as they arrive in a watched directory.");
 		options.addOption("display", true, "Display script");
+		options.addOption("assign", true, "lloyd|hamerly|elkan|kdtree. Assignment algorithm in partition mode. Default lloyd. hamerly and elkan skip distance computations using triangle inequality bounds, hamerly suits small k and elkan large k. kdtree filters means over a kd-tree of the points, for large k.");
+		options.addOption("threads", true, "Number of threads each BSPPeer uses for the assignment step. Default 1.");
+		options.addOption("init", true, "first|kmeans++|kmeans||. Choice of initial means. Default first, the first k points. kmeans++ runs k-means++ over all points on the master. kmeans|| samples candidates on all BSPPeers in a few supersteps and suits large inputs.");
+		options.addOption("seed", true, "Random seed for kmeans++ and kmeans|| initialization. Default 1.");
+		options.addOption("batch", true, "Mini-batch size per BSPPeer in partition mode. Each superstep only this many randomly drawn points per BSPPeer update the means. Default 0, full batch.");
+		options.addOption("iterations", true, "Number of mini-batch iterations. Default 100.");
+		options.addOption("nolabels", false, "Skip the final pass that assigns every point after mini-batch iterations, write only the means.");
 		options.addOption("noise", true, "Number of extra random points");
 		options.addOption("pattern", true, "Format of <pattern>[:<size>] where pattern of sphere|cube|random and optional size of points for each cluster. Example is sphere:20 which makes speheres of radius 20.");
 		options.addOption("size", true, "World size in X,Y,Z dimenions. Example: a value of 100 would create a world of 100 X 100 X 100");
 		
-		options.addOption("dimensions", true, "2 or 3. Default 2");
+		options.addOption("dimensions", true, "Number of dimensions of every point. Default 3. Records in the source and output files hold this many doubles.");
+		options.addOption("float", false, "Store, send and write points as 4 byte floats instead of doubles. Halves memory and traffic for points, means are still computed in double.");
+		options.addOption("chunk", true, "Largest message in bytes that migrating points are split into in migrate mode. Encode buffers of this size are reused across supersteps. Default 1048576.");
+		options.addOption("epsilon", true, "Stop once no mean moves further than this distance in one iteration. Default off, migrate mode stops when no mean moves at all.");
+		options.addOption("changes", true, "Stop once less than this fraction of all points changes cluster in one iteration. Default off, partition mode stops when no point changes cluster.");
+		options.addOption("wcss", true, "Stop once the within cluster sum of squares improves by less than this fraction in one iteration. Default off.");
+		options.addOption("maxiter", true, "Stop after this many iterations. Default unlimited.");
+		options.addOption("fanout", true, "Exchange means and sums over a tree of BSPPeers with this many children per node instead of all-to-all. Fewer messages, more supersteps. Default off.");
+		options.addOption("delta", true, "Only broadcast a mean that moved further than this distance since its last broadcast, peers keep the last value meanwhile. 0 skips unchanged means only. Migrate mode only, default off.");
+		options.addOption("checkpoint", true, "Checkpoint the clustering state every this many iterations. A job run again with the same options resumes from the latest checkpoint. Full batch migrate and partition modes, default off.");
+		options.addOption("checkpointdir", true, "Directory for checkpoints. Default the output directory followed by _checkpoint.");
+		options.addOption("checkpointsync", false, "Write checkpoints before going on with the next iteration instead of behind it.");
+		options.addOption("warm", true, "Start from the means in this output directory of an earlier run instead of seeding. Dense migrate and partition modes.");
+		options.addOption("warmiterations", true, "Partition mode with -warm: iterate over the points appended since the earlier run only for at most this many iterations first. Default 10, 0 for none.");
+		options.addOption("stream", false, "Send migrating points chunk by chunk while the assignment step runs instead of after it, migrate mode only.");
+		options.addOption("watch", true, "Directory to take batch files from in online mode. Default a new directory that generated batches of -points points are written to.");
+		options.addOption("batches", true, "Number of batches to generate in online mode without -watch. Default 10.");
+		options.addOption("interval", true, "Milliseconds between generated batches in online mode. Default 1000.");
+		options.addOption("decay", true, "Weight kept by older points per batch in online mode, 1 weighs all points equally. Default 1.");
+		options.addOption("publish", true, "Publish the means every this many batches in online mode. Default 1.");
+		options.addOption("poll", true, "Milliseconds between looks for new batch files in online mode. Default 1000.");
+		options.addOption("roundfiles", true, "Most batch files handed out per round in online mode, the rest wait for later rounds. Default one per BSPPeer.");
+		options.addOption("sparse", true, "Generate and cluster sparse points with this many non-zeros each, in partition mode. Source and output files are in sparse row format. Use with a large -dimensions.");
 
 		
 		final Collection<String> patterns = new ArrayList<String>();
@@ -479,6 +1179,17 @@ public class KMeansCluster {
 			k = Integer.valueOf(line.getOptionValue("k"));
 		}
 		
+		String mode = MODE_MIGRATE;
+		
+		if (line.hasOption("mode")) {
+			mode = line.getOptionValue("mode");
+			
+			if (!MODE_MIGRATE.equals(mode) && !MODE_PARTITION.equals(mode) && !MODE_ONLINE.equals(mode)) {
+				System.err.println("Mode must be one of: " + MODE_MIGRATE + ", " + MODE_PARTITION + ", " + MODE_ONLINE);
+				System.exit(-1);
+			}
+		}
+		
 		int noise = 0;
 
 		if (line.hasOption("noise")) {
@@ -499,14 +1210,98 @@ public class KMeansCluster {
 			break;
 		}
 
-		System.out.println("Setting number of tasks / clusters to:" + k);
+		conf.set(CONF_MODE, mode);
+		
+		if (line.hasOption("threads")) {
+			conf.setInt(CONF_THREADS, Integer.valueOf(line.getOptionValue("threads")));
+		}
+		
+		if (line.hasOption("assign")) {
+			final String assign = line.getOptionValue("assign");
+			
+			if (!Assigner.LLOYD.equals(assign) && !Assigner.HAMERLY.equals(assign) 
+					&& !Assigner.ELKAN.equals(assign) && !Assigner.KDTREE.equals(assign)) {
+				System.err.println("Assignment algorithm must be one of: " + Assigner.LLOYD + ", " + Assigner.HAMERLY 
+						+ ", " + Assigner.ELKAN + ", " + Assigner.KDTREE);
+				System.exit(-1);
+			}
+			
+			conf.set(CONF_ASSIGN, assign);
+		}
+		
+		if (line.hasOption("init")) {
+			final String init = line.getOptionValue("init");
+			
+			if (!Seeding.isKnown(init)) {
+				System.err.println("Initialization must be one of: " + Seeding.FIRST + ", " + Seeding.PLUS_PLUS 
+						+ ", " + Seeding.PARALLEL);
+				System.exit(-1);
+			}
+			
+			conf.set(CONF_INIT, init);
+		}
+		
+		if (line.hasOption("seed")) {
+			conf.setLong(CONF_SEED, Long.valueOf(line.getOptionValue("seed")));
+		}
+		
+		if (line.hasOption("batch")) {
+			if (!MODE_PARTITION.equals(mode)) {
+				System.err.println("Mini-batch requires -mode " + MODE_PARTITION);
+				System.exit(-1);
+			}
+			
+			conf.setInt(CONF_BATCH, Integer.valueOf(line.getOptionValue("batch")));
+		}
+		
+		if (line.hasOption("iterations")) {
+			conf.setInt(CONF_BATCH_ITERATIONS, Integer.valueOf(line.getOptionValue("iterations")));
+		}
+		
+		if (line.hasOption("nolabels")) {
+			conf.setBoolean(CONF_BATCH_LABELS, false);
+		}
+		
+		conf.setInt(CONF_K, k);
 		
-		if (k > cluster.getGroomServers()) {
-			System.out.println("Request K of " + k + " is greater than number of grooms " + cluster.getGroomServers());
-			System.exit(-1);
+		int sparseNonZeros = 0;
+		
+		if (line.hasOption("sparse")) {
+			sparseNonZeros = Integer.valueOf(line.getOptionValue("sparse"));
+			
+			if (!MODE_PARTITION.equals(mode) || line.hasOption("batch") || line.hasOption("threads") 
+					|| line.hasOption("pattern") || Seeding.PARALLEL.equals(conf.get(CONF_INIT)) 
+					|| (line.hasOption("assign") && !Assigner.LLOYD.equals(conf.get(CONF_ASSIGN)))) {
+				System.err.println("Sparse points require -mode " + MODE_PARTITION 
+						+ " and support neither -batch, -threads, -pattern, -init " + Seeding.PARALLEL 
+						+ " nor -assign other than " + Assigner.LLOYD);
+				System.exit(-1);
+			}
 		}
 		
-		bsp.setNumBspTask(k);
+		if (MODE_ONLINE.equals(mode)) {
+			
+			System.out.println("Setting number of tasks to:" + cluster.getGroomServers() + " and clusters to:" + k);
+			
+			bsp.setBspClass(StreamingClusterBSP.class);
+			bsp.setNumBspTask(cluster.getGroomServers());
+		} else if (MODE_PARTITION.equals(mode)) {
+			
+			System.out.println("Setting number of tasks to:" + cluster.getGroomServers() + " and clusters to:" + k);
+			
+			bsp.setBspClass(sparseNonZeros > 0 ? SparseClusterBSP.class : PartitionedClusterBSP.class);
+			bsp.setNumBspTask(cluster.getGroomServers());
+		} else {
+			
+			System.out.println("Setting number of tasks / clusters to:" + k);
+			
+			if (k > cluster.getGroomServers()) {
+				System.out.println("Request K of " + k + " is greater than number of grooms " + cluster.getGroomServers());
+				System.exit(-1);
+			}
+			
+			bsp.setNumBspTask(k);
+		}
 
 		FileSystem fileSys = FileSystem.get(conf);
 
@@ -515,7 +1310,7 @@ public class KMeansCluster {
 		final String srcFileName = "/tmp/kmeans_" + jobTime + "/random-data-in";
 		final String fileOutputDir = "/tmp/kmeans_" + jobTime + "/output";
 
-		final Path srcFilePath = new Path(srcFileName);
+		Path srcFilePath = new Path(srcFileName);
 		
 		int range = 200; //Size of X,Y,Z cube containing points
 		
@@ -528,6 +1323,148 @@ public class KMeansCluster {
 		
 		if (line.hasOption("dimensions")) {
 			dimensions = Integer.valueOf(line.getOptionValue("dimensions"));
+			
+			if (dimensions < 1) {
+				System.err.println("Dimensions must be at least 1");
+				System.exit(-1);
+			}
+		}
+		
+		conf.setInt(CONF_DIMENSIONS, dimensions);
+		
+		if (line.hasOption("float")) {
+			if (sparseNonZeros > 0) {
+				System.err.println("Sparse points are always stored as doubles");
+				System.exit(-1);
+			}
+			
+			conf.setBoolean(CONF_FLOAT, true);
+		}
+		
+		if (line.hasOption("chunk")) {
+			final int chunk = Integer.valueOf(line.getOptionValue("chunk"));
+			
+			if (chunk < 1) {
+				System.err.println("Chunk size must be at least 1 byte");
+				System.exit(-1);
+			}
+			
+			conf.setInt(CONF_CHUNK, chunk);
+		}
+		
+		if (line.hasOption("epsilon")) {
+			conf.set(CONF_CONVERGE_SHIFT, String.valueOf(Double.valueOf(line.getOptionValue("epsilon"))));
+		}
+		
+		if (line.hasOption("changes")) {
+			conf.set(CONF_CONVERGE_CHANGES, String.valueOf(Double.valueOf(line.getOptionValue("changes"))));
+		}
+		
+		if (line.hasOption("wcss")) {
+			conf.set(CONF_CONVERGE_WCSS, String.valueOf(Double.valueOf(line.getOptionValue("wcss"))));
+		}
+		
+		if (line.hasOption("maxiter")) {
+			conf.setInt(CONF_CONVERGE_ITERATIONS, Integer.valueOf(line.getOptionValue("maxiter")));
+		}
+		
+		if (line.hasOption("fanout")) {
+			final int fanout = Integer.valueOf(line.getOptionValue("fanout"));
+			
+			if (fanout < 2) {
+				System.err.println("Tree fan-out must be at least 2");
+				System.exit(-1);
+			}
+			
+			conf.setInt(CONF_TREE_FANOUT, fanout);
+		}
+		
+		if (line.hasOption("delta")) {
+			if (!MODE_MIGRATE.equals(mode)) {
+				System.err.println("Delta mean broadcasts require -mode " + MODE_MIGRATE);
+				System.exit(-1);
+			}
+			
+			final double tolerance = Double.parseDouble(line.getOptionValue("delta"));
+			
+			if (tolerance < 0) {
+				System.err.println("Delta tolerance must not be negative");
+				System.exit(-1);
+			}
+			
+			conf.set(CONF_DELTA_TOLERANCE, String.valueOf(tolerance));
+		}
+		
+		if (line.hasOption("checkpoint")) {
+			if (MODE_ONLINE.equals(mode) || line.hasOption("batch") || line.hasOption("sparse")) {
+				System.err.println("Checkpoints support neither -mode " + MODE_ONLINE + ", -batch nor -sparse");
+				System.exit(-1);
+			}
+			
+			conf.setInt(CONF_CHECKPOINT_INTERVAL, Integer.valueOf(line.getOptionValue("checkpoint")));
+			
+			if (line.hasOption("checkpointdir")) {
+				conf.set(CONF_CHECKPOINT_DIR, line.getOptionValue("checkpointdir"));
+			}
+			
+			conf.setBoolean(CONF_CHECKPOINT_ASYNC, !line.hasOption("checkpointsync"));
+		}
+		
+		if (line.hasOption("warm")) {
+			if (MODE_ONLINE.equals(mode) || line.hasOption("sparse")) {
+				System.err.println("Warm start supports neither -mode " + MODE_ONLINE + " nor -sparse");
+				System.exit(-1);
+			}
+			
+			conf.set(CONF_WARM_START, line.getOptionValue("warm"));
+			
+			if (line.hasOption("warmiterations")) {
+				conf.setInt(CONF_WARM_ITERATIONS, Integer.valueOf(line.getOptionValue("warmiterations")));
+			}
+		}
+		
+		if (MODE_ONLINE.equals(mode)) {
+			if (line.hasOption("source")) {
+				System.err.println("Online mode takes batch files from a directory, see -watch");
+				System.exit(-1);
+			}
+			
+			if (line.hasOption("batch") || line.hasOption("sparse") || Seeding.PARALLEL.equals(conf.get(CONF_INIT))) {
+				System.err.println("Online mode supports neither -batch, -sparse nor -init " + Seeding.PARALLEL);
+				System.exit(-1);
+			}
+			
+			if (line.hasOption("decay")) {
+				final double decay = Double.parseDouble(line.getOptionValue("decay"));
+				
+				if (decay < 0 || decay > 1) {
+					System.err.println("Decay must be between 0 and 1");
+					System.exit(-1);
+				}
+				
+				conf.set(CONF_ONLINE_DECAY, String.valueOf(decay));
+			}
+			
+			if (line.hasOption("publish")) {
+				conf.setInt(CONF_ONLINE_PUBLISH, Integer.valueOf(line.getOptionValue("publish")));
+			}
+			
+			if (line.hasOption("poll")) {
+				conf.setLong(CONF_ONLINE_POLL, Long.valueOf(line.getOptionValue("poll")));
+			}
+			
+			if (line.hasOption("roundfiles")) {
+				conf.setInt(CONF_ONLINE_ROUND_FILES, Integer.valueOf(line.getOptionValue("roundfiles")));
+			}
+		}
+		
+		if (line.hasOption("stream")) {
+			if (!MODE_MIGRATE.equals(mode)) {
+				System.err.println("Streaming assignment requires -mode " + MODE_MIGRATE);
+				System.exit(-1);
+			}
+			
+			conf.setBoolean(CONF_STREAM, true);
 		}
 		
 		PointGenerator gen = new RandomPointGenerator();
@@ -554,12 +1491,34 @@ public class KMeansCluster {
 			}
 		}
 		
-		gen.generateSourceFile(fileSys, srcFilePath, numPoints, range, noise, dimensions);
+		if (sparseNonZeros > 0) {
+			gen = new SparseRandomPointGenerator(k, sparseNonZeros);
+		}
+		
+		if (MODE_ONLINE.equals(mode)) {
+			if (line.hasOption("watch")) {
+				srcFilePath = new Path(line.getOptionValue("watch"));
+			} else {
+				final int batches = line.hasOption("batches") ? Integer.valueOf(line.getOptionValue("batches")) : 10;
+				final long interval = line.hasOption("interval") ? Long.valueOf(line.getOptionValue("interval")) : 1000;
+				
+				startFeed(fileSys, srcFilePath, gen, batches, interval, numPoints, range, noise, dimensions, Precision.of(conf));
+			}
+		} else if (line.hasOption("source")) {
+			srcFilePath = new Path(line.getOptionValue("source"));
+			
+			if (!fileSys.exists(srcFilePath)) {
+				System.err.println("Source file not found: " + srcFilePath);
+				System.exit(-1);
+			}
+		} else {
+			gen.generateSourceFile(fileSys, srcFilePath, numPoints, range, noise, dimensions, Precision.of(conf));
+		}
 
 		conf.set(CONF_FILE_SOURCE, srcFilePath.toString());
 		conf.set(CONF_FILE_OUT, fileOutputDir);
 		
-		System.out.println("Src data at: " + srcFileName);
+		System.out.println("Src data at: " + srcFilePath);
 		System.out.println("Out data at: " + fileOutputDir);
 		System.out.println("Starting job");
 		
@@ -574,13 +1533,51 @@ public class KMeansCluster {
 		System.out.println("Output in: " + new Path(localOut));
 
 		
-		if (graphScript != null) {
-			final String cmd = graphScript + " " + localOut;
+		if (graphScript != null && sparseNonZeros == 0 && !MODE_ONLINE.equals(mode)) {
+			final String cmd = graphScript + " " + localOut + " " + dimensions 
+					+ (Precision.of(conf) == Precision.FLOAT ? " float" : "");
 			Runtime run = Runtime.getRuntime();
 			run.exec(cmd);
 		}
 		
 	}
+	
+	/**
+	 * Stand-in for a live feed in online mode: write {@code batches} generated
+	 * batch files into {@code dir}, one every {@code interval} ms, then the
+	 * end of stream marker. Each file is renamed into place once written.
+	 */
+	static Thread startFeed(final FileSystem fileSys, final Path dir, final PointGenerator gen, final int batches,
+			final long interval, final int numPoints, final int range, final int noise, final int dimensions,
+			final Precision precision) {
+		
+		final Thread feed = new Thread("batch feed") {
+			@Override
+			public void run() {
+				try {
+					for (int b = 1; b <= batches; b++) {
+						final Path partial = new Path(dir, "_batch");
+						gen.generateSourceFile(fileSys, partial, numPoints, range, noise, dimensions, precision);
+						fileSys.rename(partial, new Path(dir, String.format("batch-%06d", b)));
+						
+						System.out.println("Fed batch " + b + " of " + batches);
+						Thread.sleep(interval);
+					}
+					
+					fileSys.create(new Path(dir, StreamingClusterBSP.DONE_MARKER), true).close();
+				} catch (IOException e) {
+					throw new RuntimeException("Batch feed failed", e);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		
+		feed.setDaemon(true);
+		feed.start();
+		
+		return feed;
+	}
 
 }
 
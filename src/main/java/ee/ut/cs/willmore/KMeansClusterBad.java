@@ -49,10 +49,10 @@ public class KMeansClusterBad {
 
 		
 		//Map of peer name => cluster center (mean)
-		final Map<String, Point3D> peerMeanMap = new HashMap<String, Point3D>();
+		final Map<String, DenseVector> peerMeanMap = new HashMap<String, DenseVector>();
 		
 		//All points currently in my cluster
-		final List<Point3D> points = new ArrayList<Point3D>();
+		final List<DenseVector> points = new ArrayList<DenseVector>();
 				
 		@Override
 		public void bsp(final BSPPeerProtocol bspPeer) throws IOException,
@@ -109,9 +109,9 @@ public class KMeansClusterBad {
 			
 			assert(peerMeanMap.containsKey(bsp.getPeerName()));
 			
-			final Point3D mean = peerMeanMap.get(bsp.getPeerName());
+			final DenseVector mean = peerMeanMap.get(bsp.getPeerName());
 
-			for (Point3D point : points){
+			for (DenseVector point : points){
 				sum += point.distance(mean);
 			}
 			
@@ -189,10 +189,10 @@ public class KMeansClusterBad {
 				
 			ByteBuffer buffer = ByteBuffer.allocate(pm.getData().size() * 3 * 8);
 		    
-			for (Point3D p : pm.getData()) {
-				buffer.putDouble(p.x);
-				buffer.putDouble(p.y);
-				buffer.putDouble(p.z);
+			for (DenseVector p : pm.getData()) {
+				buffer.putDouble(p.get(0));
+				buffer.putDouble(p.get(1));
+				buffer.putDouble(p.get(2));
 			}
 		   
 			return new BSPMessage(pm.getTag().getBytes(), buffer.array());		
@@ -204,10 +204,10 @@ public class KMeansClusterBad {
 			
 			ByteBuffer buffer = ByteBuffer.wrap(bMsg.getData());
 			
-			List<Point3D> points = new ArrayList<Point3D>();
+			List<DenseVector> points = new ArrayList<DenseVector>();
 			
 			while (buffer.hasRemaining()) {	
-				points.add(new Point3D(buffer.getDouble(), buffer.getDouble(), buffer.getDouble()));
+				points.add(new DenseVector(buffer.getDouble(), buffer.getDouble(), buffer.getDouble()));
 			}
 		
 			return new PointMessage(new String(bMsg.getTag()), points);			
@@ -232,7 +232,7 @@ public class KMeansClusterBad {
 			LOG.info("Number of points is: " + numPoints);
 			
 			for (int i = 0; i < numPoints; i++) {
-				points.add(new Point3D(srcFile.readDouble(), 
+				points.add(new DenseVector(srcFile.readDouble(), 
 									   srcFile.readDouble(), 
 									   srcFile.readDouble()));
 			}
@@ -240,11 +240,11 @@ public class KMeansClusterBad {
 			//Assign one mean to each node
 			//Means are chosen "randomly" from points
 
-			final Map<String, Point3D> initPeerMeanMap = new HashMap<String, Point3D>();
+			final Map<String, DenseVector> initPeerMeanMap = new HashMap<String, DenseVector>();
 			
 			int ctr = 0; 
 			for (final String peer : bspPeer.getAllPeerNames()) {
-				Point3D p = points.get(ctr++);
+				DenseVector p = points.get(ctr++);
 				initPeerMeanMap.put(peer, p);
 			}
 			
@@ -253,7 +253,7 @@ public class KMeansClusterBad {
 
 				LOG.info("Sending intial means to: " + peer);
 				
-				for (final Map.Entry<String, Point3D> peerMean : initPeerMeanMap.entrySet()) {
+				for (final Map.Entry<String, DenseVector> peerMean : initPeerMeanMap.entrySet()) {
 	
 					PointMessage msg = new PointMessage(peerMean.getKey(),
 							peerMean.getValue());
@@ -270,22 +270,22 @@ public class KMeansClusterBad {
 		private int assignmentStep(final BSPPeerProtocol bspPeer) throws IOException {
 						
 			//For each of my points, find new best cluster by geometric distance.			
-			final Map<String, List<Point3D>> peerNewPoints = new HashMap<String, List<Point3D>>();
+			final Map<String, List<DenseVector>> peerNewPoints = new HashMap<String, List<DenseVector>>();
 			
 			for (String peer : peerMeanMap.keySet()) {
-				peerNewPoints.put(peer, new ArrayList<Point3D>());
+				peerNewPoints.put(peer, new ArrayList<DenseVector>());
 			}
 			
 			int changeCount = 0;
 						
-			for (Iterator<Point3D> pointItr = points.iterator(); pointItr.hasNext();) {
+			for (Iterator<DenseVector> pointItr = points.iterator(); pointItr.hasNext();) {
 				
-				final Point3D obs = pointItr.next();
+				final DenseVector obs = pointItr.next();
 				
 				double min = Double.MAX_VALUE;
 				String minPeer = null;
 				
-				for (Map.Entry<String, Point3D> peer : peerMeanMap.entrySet()) {
+				for (Map.Entry<String, DenseVector> peer : peerMeanMap.entrySet()) {
 					double distance = obs.distance(peer.getValue());
 					
 					if (distance < min) {
@@ -307,7 +307,7 @@ public class KMeansClusterBad {
 			
 			
 			//Notify other clusters of new points	
-			for (Map.Entry<String, List<Point3D>> peerPoints : peerNewPoints.entrySet()) {
+			for (Map.Entry<String, List<DenseVector>> peerPoints : peerNewPoints.entrySet()) {
 				
 				if (peerPoints.getValue().size() == 0) {
 					continue;
@@ -350,7 +350,7 @@ public class KMeansClusterBad {
 		 * @param bspPeer
 		 * @throws IOException
 		 */
-		private void broadcastMyMean(BSPPeerProtocol bspPeer, Point3D mean) throws IOException {
+		private void broadcastMyMean(BSPPeerProtocol bspPeer, DenseVector mean) throws IOException {
 			
 			final BSPMessage msg = pointToByteMessage(new PointMessage(bspPeer.getPeerName(), mean));
 			
@@ -359,18 +359,18 @@ public class KMeansClusterBad {
 			}
 		}
 
-		private Point3D calculateCenter(List<Point3D> points) {
+		private DenseVector calculateCenter(List<DenseVector> points) {
 			double x = 0;
 			double y = 0;
 			double z = 0;
 			
-			for (Point3D p : points) {
-				x += p.x / points.size();
-				y += p.y / points.size();
-				z += p.z / points.size();
+			for (DenseVector p : points) {
+				x += p.get(0) / points.size();
+				y += p.get(1) / points.size();
+				z += p.get(2) / points.size();
 			}
 			
-			return new Point3D(x, y, z);
+			return new DenseVector(x, y, z);
 		}
 
 		private boolean isMaster(BSPPeerProtocol bspPeer) {
@@ -411,7 +411,7 @@ public class KMeansClusterBad {
 		options.addOption("pattern", true, "Format of <pattern>[:<size>] where pattern of sphere|cube|random and optional size of points for each cluster. Example is sphere:20 which makes speheres of radius 20.");
 		options.addOption("size", true, "World size in X,Y,Z dimenions. Example: a value of 100 would create a world of 100 X 100 X 100");
 		
-		options.addOption("dimensions", true, "2 or 3. Default 2");
+		options.addOption("dimensions", true, "Must be 3, the points of this implementation are 3D. Default 3");
 
 		
 		final Collection<String> patterns = new ArrayList<String>();
@@ -513,6 +513,12 @@ public class KMeansClusterBad {
 			dimensions = Integer.valueOf(line.getOptionValue("dimensions"));
 		}
 		
+		//Source file and messages are read as three coordinates per point
+		if (dimensions != 3) {
+			System.err.println("Only 3 dimensions are supported, see KMeansCluster for others");
+			System.exit(-1);
+		}
+		
 		PointGenerator gen = new RandomPointGenerator();
 		
 		if (line.hasOption("pattern")) {
@@ -537,7 +543,7 @@ public class KMeansClusterBad {
 			}
 		}
 		
-		gen.generateSourceFile(fileSys, srcFilePath, numPoints, range, noise, dimensions);
+		gen.generateSourceFile(fileSys, srcFilePath, numPoints, range, noise, dimensions, Precision.DOUBLE);
 
 		conf.set(CONF_FILE_SOURCE, srcFilePath.toString());
 		conf.set(CONF_FILE_OUT, fileOutputDir);
@@ -0,0 +1,344 @@
+package ee.ut.cs.willmore;
+
+import java.util.Arrays;
+
+/**
+ * Exact assignment with the filtering algorithm of Kanungo et al. A kd-tree is
+ * built once over the points, caching the bounding box and coordinate sums of
+ * every cell. Each iteration the means are pushed down the tree; at every cell
+ * means that cannot be closest to any point of the cell are dropped, and as
+ * soon as one mean remains the whole cell is assigned to it using its cached
+ * sums, without computing a single distance. Pays off for large k in few
+ * dimensions; with many dimensions hardly any cell is pruned.
+ */
+public class KdTreeAssigner extends Assigner {
+
+	private static final int LEAF_SIZE = 16;
+
+	//Indices of the points in my range, reordered so that every cell is a
+	//contiguous range
+	private final int[] order;
+
+	//Node arrays, index 0 is the root. A leaf has left == -1.
+	private int[] start = new int[16];
+	private int[] end = new int[16];
+	private int[] left = new int[16];
+	private int[] right = new int[16];
+	//Per node the minimum of every dimension, then the maximum of every
+	//dimension, 2 * dimensions values
+	private double[] bounds;
+	//Per node the coordinate sums of the points in the cell
+	private double[] cellSums;
+	private int numNodes;
+	private int depth;
+
+	//Candidate means per tree level, so the descent allocates nothing
+	private int[][] candidates;
+
+	private double[] means;
+	private int[] assignments;
+	private PartialSums partial;
+	private int changeCount;
+
+	public KdTreeAssigner(PointStore points, int k, int from, int to) {
+		super(points, k, from, to);
+
+		this.bounds = new double[16 * 2 * dimensions];
+		this.cellSums = new double[16 * dimensions];
+
+		this.order = new int[to - from];
+		for (int j = 0; j < order.length; j++) {
+			order[j] = from + j;
+		}
+
+		if (order.length > 0) {
+			build(0, order.length, 1);
+		}
+
+		this.candidates = new int[depth + 1][k];
+	}
+
+	@Override
+	public int assign(double[] means, int[] assignments, PartialSums partial) {
+
+		this.means = means;
+		this.assignments = assignments;
+		this.partial = partial;
+		this.changeCount = 0;
+
+		distanceCount = 0;
+
+		if (numNodes > 0) {
+			final int[] all = candidates[0];
+			for (int c = 0; c < k; c++) {
+				all[c] = c;
+			}
+
+			filter(0, 0, k);
+		}
+
+		this.means = null;
+		this.assignments = null;
+		this.partial = null;
+
+		return changeCount;
+	}
+
+	/**
+	 * Assign the points of {@code node} given the first {@code count}
+	 * candidate means at {@code level}.
+	 */
+	private void filter(int node, int level, int count) {
+
+		final int[] current = candidates[level];
+
+		if (count == 1) {
+			assignCell(node, current[0]);
+			return;
+		}
+
+		if (left[node] == -1) {
+			assignLeaf(node, current, count);
+			return;
+		}
+
+		//The candidate closest to the cell midpoint stays, all candidates it
+		//dominates over the entire cell are dropped.
+		final int box = node * 2 * dimensions;
+
+		int best = current[0];
+		double bestDistance = Double.MAX_VALUE;
+
+		for (int j = 0; j < count; j++) {
+			final int c = current[j];
+			final double distance = midpointDistance(c, box);
+
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				best = c;
+			}
+		}
+
+		distanceCount += count;
+
+		final int[] next = candidates[level + 1];
+		int kept = 0;
+
+		for (int j = 0; j < count; j++) {
+			final int c = current[j];
+
+			if (c == best || !isFarther(c, best, box)) {
+				next[kept++] = c;
+			}
+		}
+
+		if (kept == 1) {
+			assignCell(node, best);
+			return;
+		}
+
+		filter(left[node], level + 1, kept);
+		filter(right[node], level + 1, kept);
+	}
+
+	/**
+	 * @return true if mean {@code c} is at least as far as mean {@code best}
+	 *         from every point of the cell with bounding box at {@code box}.
+	 *         Only the cell corner furthest in the direction from
+	 *         {@code best} to {@code c} needs to be checked.
+	 */
+	private boolean isFarther(int c, int best, int box) {
+		final int cOffset = c * dimensions;
+		final int bestOffset = best * dimensions;
+
+		double cDistance = 0;
+		double bestDistance = 0;
+
+		for (int d = 0; d < dimensions; d++) {
+			final double vertex = means[cOffset + d] > means[bestOffset + d] ? bounds[box + dimensions + d] : bounds[box + d];
+			final double dc = means[cOffset + d] - vertex;
+			final double db = means[bestOffset + d] - vertex;
+			cDistance += dc * dc;
+			bestDistance += db * db;
+		}
+
+		return cDistance >= bestDistance;
+	}
+
+	/**
+	 * Squared distance from mean {@code c} to the midpoint of the cell with
+	 * bounding box at {@code box}.
+	 */
+	private double midpointDistance(int c, int box) {
+		final int offset = c * dimensions;
+
+		double sum = 0;
+		for (int d = 0; d < dimensions; d++) {
+			final double delta = means[offset + d] - (bounds[box + d] + bounds[box + dimensions + d]) / 2;
+			sum += delta * delta;
+		}
+		return sum;
+	}
+
+	/**
+	 * Assign every point of {@code node} to mean {@code c}, adding the cached
+	 * cell sums instead of the individual points.
+	 */
+	private void assignCell(int node, int c) {
+
+		for (int j = start[node]; j < end[node]; j++) {
+			final int i = order[j];
+
+			if (assignments[i] != c) {
+				assignments[i] = c;
+				changeCount += 1;
+			}
+		}
+
+		partial.addCell(c, cellSums, node * dimensions, end[node] - start[node]);
+	}
+
+	private void assignLeaf(int node, int[] current, int count) {
+
+		for (int j = start[node]; j < end[node]; j++) {
+			final int i = order[j];
+			points.copy(i, point, 0);
+
+			double min = Double.MAX_VALUE;
+			int minCluster = -1;
+
+			for (int m = 0; m < count; m++) {
+				final int c = current[m];
+				final double distance = DistanceKernel.squaredDistance(point, 0,
+						means, c * dimensions, dimensions);
+
+				if (distance < min) {
+					min = distance;
+					minCluster = c;
+				}
+			}
+
+			if (assignments[i] != minCluster) {
+				assignments[i] = minCluster;
+				changeCount += 1;
+			}
+
+			partial.add(minCluster, point, 0);
+		}
+
+		distanceCount += (long) (end[node] - start[node]) * count;
+	}
+
+	/**
+	 * Build the cell over {@code order[from, to)}, splitting at the median of
+	 * its widest dimension.
+	 *
+	 * @return Index of the new node
+	 */
+	private int build(int from, int to, int level) {
+
+		final int node = newNode();
+		start[node] = from;
+		end[node] = to;
+		left[node] = -1;
+		right[node] = -1;
+		depth = Math.max(depth, level);
+
+		final int box = node * 2 * dimensions;
+		final int sums = node * dimensions;
+		Arrays.fill(bounds, box, box + dimensions, Double.MAX_VALUE);
+		Arrays.fill(bounds, box + dimensions, box + 2 * dimensions, -Double.MAX_VALUE);
+		Arrays.fill(cellSums, sums, sums + dimensions, 0);
+
+		for (int j = from; j < to; j++) {
+			points.copy(order[j], point, 0);
+
+			for (int d = 0; d < dimensions; d++) {
+				final double value = point[d];
+
+				cellSums[sums + d] += value;
+				bounds[box + d] = Math.min(bounds[box + d], value);
+				bounds[box + dimensions + d] = Math.max(bounds[box + dimensions + d], value);
+			}
+		}
+
+		if (to - from <= LEAF_SIZE) {
+			return node;
+		}
+
+		int dimension = 0;
+		for (int d = 1; d < dimensions; d++) {
+			if (bounds[box + dimensions + d] - bounds[box + d] > bounds[box + dimensions + dimension] - bounds[box + dimension]) {
+				dimension = d;
+			}
+		}
+
+		if (bounds[box + dimensions + dimension] == bounds[box + dimension]) {
+			//All points are identical, nothing to split
+			return node;
+		}
+
+		final int middle = (from + to) >>> 1;
+		select(from, to - 1, middle, dimension);
+
+		final int leftChild = build(from, middle, level + 1);
+		final int rightChild = build(middle, to, level + 1);
+		left[node] = leftChild;
+		right[node] = rightChild;
+
+		return node;
+	}
+
+	private int newNode() {
+		if (numNodes == start.length) {
+			final int capacity = 2 * numNodes;
+			start = Arrays.copyOf(start, capacity);
+			end = Arrays.copyOf(end, capacity);
+			left = Arrays.copyOf(left, capacity);
+			right = Arrays.copyOf(right, capacity);
+			bounds = Arrays.copyOf(bounds, capacity * 2 * dimensions);
+			cellSums = Arrays.copyOf(cellSums, capacity * dimensions);
+		}
+		return numNodes++;
+	}
+
+	/**
+	 * Quickselect {@code order[lo, hi]} so that position {@code nth} holds
+	 * the point with the nth smallest coordinate in {@code dimension}.
+	 */
+	private void select(int lo, int hi, int nth, int dimension) {
+		while (hi > lo) {
+			final double pivot = coordinate(order[(lo + hi) >>> 1], dimension);
+
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (coordinate(order[i], dimension) < pivot) {
+					i++;
+				}
+				while (coordinate(order[j], dimension) > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					final int swap = order[i];
+					order[i] = order[j];
+					order[j] = swap;
+					i++;
+					j--;
+				}
+			}
+
+			if (nth <= j) {
+				hi = j;
+			} else if (nth >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private double coordinate(int i, int dimension) {
+		return points.get(i, dimension);
+	}
+}
@@ -0,0 +1,36 @@
+package ee.ut.cs.willmore;
+
+/**
+ * Brute force assignment, comparing every point against every mean.
+ */
+public class LloydAssigner extends Assigner {
+
+	public LloydAssigner(PointStore points, int k, int from, int to) {
+		super(points, k, from, to);
+	}
+
+	@Override
+	public int assign(double[] means, int[] assignments, PartialSums partial) {
+
+		int changeCount = 0;
+
+		kernel.load(means);
+
+		for (int i = from; i < to; i++) {
+
+			points.copy(i, point, 0);
+			final int minCluster = kernel.nearest(point, 0, squared);
+
+			if (assignments[i] != minCluster) {
+				assignments[i] = minCluster;
+				changeCount += 1;
+			}
+
+			partial.add(minCluster, point, 0);
+		}
+
+		distanceCount = (long) (to - from) * k;
+
+		return changeCount;
+	}
+}
@@ -0,0 +1,65 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+
+import org.apache.hama.bsp.BSPMessage;
+import org.apache.hama.bsp.BSPPeerProtocol;
+
+/**
+ * Registry of handlers by {@link MessageHeader} type. Dispatching a message
+ * is one array lookup on its type byte.
+ */
+public class MessageDispatcher {
+
+	/**
+	 * Decodes and applies one message of a registered type.
+	 */
+	public interface Handler {
+		void handle(BSPMessage msg) throws IOException;
+	}
+
+	private final Handler[] handlers = new Handler[MessageHeader.TYPES];
+
+	public MessageDispatcher register(byte type, Handler handler) {
+		if (handlers[type] != null) {
+			throw new IllegalStateException("Handler for message type " + type + " already registered");
+		}
+		handlers[type] = handler;
+		return this;
+	}
+
+	/**
+	 * Hand every message received in the last superstep to its handler.
+	 *
+	 * @return Number of messages handled
+	 */
+	public int dispatch(BSPPeerProtocol bspPeer) throws IOException {
+
+		int count = 0;
+
+		BSPMessage msg;
+		while ((msg = bspPeer.getCurrentMessage()) != null) {
+			handle(msg);
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Hand one message to its handler.
+	 */
+	public void handle(BSPMessage msg) throws IOException {
+		handlerFor(msg).handle(msg);
+	}
+
+	private Handler handlerFor(BSPMessage msg) {
+		final byte[] tag = msg.getTag();
+		final Handler handler = tag.length == MessageHeader.BYTES && tag[0] >= 0 ? handlers[tag[0]] : null;
+
+		if (handler == null) {
+			throw new RuntimeException("Unknown message type " + MessageHeader.describe(msg));
+		}
+		return handler;
+	}
+}
@@ -0,0 +1,89 @@
+package ee.ut.cs.willmore;
+
+import org.apache.hama.bsp.BSPMessage;
+
+/**
+ * Binary header carried as the tag of every message: a type byte, an int
+ * index and an int record count, big endian. What index and count mean is
+ * up to the type, usually the sending peer's index in
+ * {@link KMeansCluster#sortedPeerNames} and the number of points or clusters
+ * in the data. Reading the header neither allocates nor depends on the number
+ * of peers, unlike matching string tags.
+ */
+public final class MessageHeader {
+
+	static final int BYTES = 1 + 4 + 4;
+
+	//Number of distinct types a MessageDispatcher can register
+	static final int TYPES = 128;
+
+	/** Migrate mode: points moving to the receiver's cluster. */
+	static final byte POINTS = 1;
+	/** Migrate mode: the mean of the cluster of peer {@code index}. */
+	static final byte MEAN = 2;
+	/** Partition mode: all {@code count} means from the master. */
+	static final byte MEANS = 3;
+	/** Partition mode: {@link PartialSums} of peer {@code index}. */
+	static final byte SUMS = 4;
+	/** k-means||: candidates sampled by peer {@code index}. */
+	static final byte CANDIDATES = 5;
+	/** k-means||: sampling cost of peer {@code index}. */
+	static final byte COST = 6;
+	/** k-means||: candidate weights counted by peer {@code index}. */
+	static final byte WEIGHTS = 7;
+	/** Migrate mode: assignment step figures of peer {@code index}. */
+	static final byte STATS = 8;
+	/** {@link TreeExchange}: {@code count} messages gathered by peer {@code index}. */
+	static final byte BUNDLE = 9;
+	/** Online mode: {@code count} batch files for the receiver, from the master. */
+	static final byte FILES = 10;
+
+	private MessageHeader() {
+	}
+
+	public static BSPMessage create(byte type, int index, int count, byte[] data) {
+		final byte[] tag = new byte[BYTES];
+		tag[0] = type;
+		putInt(tag, 1, index);
+		putInt(tag, 5, count);
+		return new BSPMessage(tag, data);
+	}
+
+	public static byte type(BSPMessage msg) {
+		return msg.getTag()[0];
+	}
+
+	public static int index(BSPMessage msg) {
+		return getInt(msg.getTag(), 1);
+	}
+
+	public static int count(BSPMessage msg) {
+		return getInt(msg.getTag(), 5);
+	}
+
+	/**
+	 * Fail unless {@code msg} is of type {@code expected}, for supersteps in
+	 * which only one type of message arrives.
+	 */
+	public static void check(BSPMessage msg, byte expected) {
+		if (msg.getTag().length != BYTES || type(msg) != expected) {
+			throw new RuntimeException("Unexpected message type " + describe(msg) + ", expected " + expected);
+		}
+	}
+
+	static String describe(BSPMessage msg) {
+		return msg.getTag().length == BYTES ? Byte.toString(type(msg)) : "of tag length " + msg.getTag().length;
+	}
+
+	private static void putInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+
+	private static int getInt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+				| (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+	}
+}
@@ -0,0 +1,73 @@
+package ee.ut.cs.willmore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits the points into one contiguous slice per thread, each handled by its
+ * own {@link Assigner} on a shared pool. Slice sums are merged in slice order,
+ * so results do not depend on thread scheduling.
+ */
+public class ParallelAssigner extends Assigner {
+
+	private final ExecutorService pool;
+	private final Assigner[] slices;
+
+	public ParallelAssigner(String name, PointStore points, int k, int threads, ExecutorService pool) {
+		super(points, k, 0, points.size());
+		this.pool = pool;
+		this.slices = new Assigner[threads];
+
+		for (int t = 0; t < threads; t++) {
+			slices[t] = Assigner.create(name, points, k,
+					PointReader.sliceStart(points.size(), t, threads),
+					PointReader.sliceStart(points.size(), t + 1, threads));
+		}
+	}
+
+	@Override
+	public int assign(final double[] means, final int[] assignments, final PartialSums partial) {
+
+		final List<Future<PartialSums>> results = new ArrayList<Future<PartialSums>>(slices.length);
+		final int[] sliceChanges = new int[slices.length];
+
+		for (int t = 0; t < slices.length; t++) {
+			final int slice = t;
+
+			results.add(pool.submit(new Callable<PartialSums>() {
+				@Override
+				public PartialSums call() {
+					final PartialSums slicePartial = new PartialSums(partial.getPeerIndex(), k, dimensions);
+					sliceChanges[slice] = slices[slice].assign(means, assignments, slicePartial);
+					return slicePartial;
+				}
+			}));
+		}
+
+		int changeCount = 0;
+		distanceCount = 0;
+
+		for (int t = 0; t < slices.length; t++) {
+			partial.merge(get(results.get(t)));
+			changeCount += sliceChanges[t];
+			distanceCount += slices[t].getDistanceCount();
+		}
+
+		return changeCount;
+	}
+
+	static <T> T get(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hama.bsp.BSPMessage;
+import org.apache.hama.bsp.BSPPeerProtocol;
+import org.apache.zookeeper.KeeperException;
+
+/**
+ * k-means|| initialization (Bahmani et al.) over the peers' partitions.
+ *
+ * Starting from one uniformly drawn point, every round each peer samples its
+ * points independently with probability {@code l * d^2 / cost}, where d is
+ * the distance to the closest candidate so far and cost the sum of d^2 over
+ * all peers. The samples of all peers become new candidates. After the last
+ * round the master weights each candidate by the number of points closest to
+ * it and reduces the candidates to k means with weighted k-means++.
+ *
+ * Takes 2 supersteps per round plus 2. Candidates are kept in peer index
+ * order, so all peers hold the same candidate list.
+ */
+public class ParallelSeeding {
+
+	public static final Log LOG = LogFactory.getLog(ParallelSeeding.class);
+
+	private final PointStore points;
+	private final int k;
+	private final int rounds;
+	private final double oversampling;
+	private final Random random;
+
+	private final PointStore candidates;
+
+	//Squared distance of each of my points to its closest candidate
+	private final double[] minSquared;
+
+	/**
+	 * @param oversampling Expected number of candidates drawn per round, l
+	 * @param random Generator for this peer's draws, seeded differently per peer
+	 */
+	public ParallelSeeding(PointStore points, int k, int rounds, double oversampling, Random random) {
+		this.points = points;
+		this.k = k;
+		this.rounds = rounds;
+		this.oversampling = oversampling;
+		this.random = random;
+		this.candidates = new PointStore(points.dimensions());
+		this.minSquared = new double[points.size()];
+		Arrays.fill(minSquared, Double.MAX_VALUE);
+	}
+
+	/**
+	 * Run the seeding supersteps. All peers must call this together.
+	 *
+	 * @param masterTask Peer that collects the weights and picks the means
+	 * @param first The first candidate on the master, drawn uniformly from all
+	 *        points, null on other peers
+	 * @return k interleaved means on the master, null on other peers
+	 */
+	public double[] run(BSPPeerProtocol bspPeer, String[] peers, int myIndex, String masterTask, DenseVector first)
+			throws IOException, KeeperException, InterruptedException {
+
+		final boolean master = bspPeer.getPeerName().equals(masterTask);
+
+		if (master) {
+			final PointStore firstStore = new PointStore(points.dimensions(), 1);
+			firstStore.add(first);
+			sendToAll(bspPeer, peers, candidatesMessage(myIndex, firstStore));
+		}
+
+		bspPeer.sync();
+
+		for (int round = 0; ; round++) {
+
+			final int newFrom = candidates.size();
+			receiveCandidates(bspPeer, peers.length);
+			updateMinSquared(newFrom);
+
+			if (round == rounds) {
+				break;
+			}
+
+			double myCost = 0;
+			for (int i = 0; i < points.size(); i++) {
+				myCost += minSquared[i];
+			}
+
+			sendToAll(bspPeer, peers, costMessage(myIndex, myCost));
+			bspPeer.sync();
+
+			final double cost = receiveCost(bspPeer, peers.length);
+
+			final PointStore sample = new PointStore(points.dimensions());
+
+			if (cost > 0) {
+				for (int i = 0; i < points.size(); i++) {
+					if (random.nextDouble() * cost < oversampling * minSquared[i]) {
+						sample.add(points, i);
+					}
+				}
+			}
+
+			LOG.info("Seeding round " + (round + 1) + " of " + rounds + ", cost " + cost + ", sampled " + sample.size());
+
+			if (!sample.isEmpty()) {
+				sendToAll(bspPeer, peers, candidatesMessage(myIndex, sample));
+			}
+			bspPeer.sync();
+		}
+
+		bspPeer.send(masterTask, weightsMessage(myIndex, countClosest()));
+		bspPeer.sync();
+
+		if (!master) {
+			return null;
+		}
+
+		final double[] weights = receiveWeights(bspPeer);
+
+		LOG.info("Reducing " + candidates.size() + " candidates to " + k + " means");
+
+		if (candidates.size() < k) {
+			throw new RuntimeException("Only " + candidates.size() + " seeding candidates for " + k
+					+ " clusters, increase the rounds or oversampling");
+		}
+
+		return Seeding.plusPlus(candidates, weights, k, random);
+	}
+
+	/**
+	 * Tighten minSquared against the candidates from {@code from} on.
+	 */
+	private void updateMinSquared(int from) {
+
+		final double[] candidateCoords = candidates.coordinates();
+
+		for (int i = 0; i < points.size(); i++) {
+			for (int c = from; c < candidates.size(); c++) {
+				final double distance = points.squaredDistance(i, candidateCoords, c);
+				if (distance < minSquared[i]) {
+					minSquared[i] = distance;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Number of my points closest to each candidate
+	 */
+	private long[] countClosest() {
+
+		final DistanceKernel kernel = DistanceKernel.create(candidates.size(), points.dimensions());
+		kernel.load(candidates.coordinates());
+
+		final double[] squared = new double[candidates.size()];
+		final double[] point = new double[points.dimensions()];
+		final long[] counts = new long[candidates.size()];
+
+		for (int i = 0; i < points.size(); i++) {
+			points.copy(i, point, 0);
+			counts[kernel.nearest(point, 0, squared)]++;
+		}
+
+		return counts;
+	}
+
+	/**
+	 * Append the candidates sent this superstep, in peer index order.
+	 */
+	private void receiveCandidates(BSPPeerProtocol bspPeer, int numPeers) throws IOException {
+
+		final ByteBuffer[] samples = new ByteBuffer[numPeers];
+
+		BSPMessage msg;
+		while ((msg = bspPeer.getCurrentMessage()) != null) {
+			MessageHeader.check(msg, MessageHeader.CANDIDATES);
+			samples[MessageHeader.index(msg)] = ByteBuffer.wrap(msg.getData());
+		}
+
+		for (ByteBuffer sample : samples) {
+			if (sample != null) {
+				candidates.append(sample);
+			}
+		}
+	}
+
+	/**
+	 * @return Sum of all peers' costs, added in peer index order
+	 */
+	private double receiveCost(BSPPeerProtocol bspPeer, int numPeers) throws IOException {
+
+		final double[] costs = new double[numPeers];
+
+		BSPMessage msg;
+		while ((msg = bspPeer.getCurrentMessage()) != null) {
+			MessageHeader.check(msg, MessageHeader.COST);
+			costs[MessageHeader.index(msg)] = ByteBuffer.wrap(msg.getData()).getDouble();
+		}
+
+		double cost = 0;
+		for (double peerCost : costs) {
+			cost += peerCost;
+		}
+		return cost;
+	}
+
+	private double[] receiveWeights(BSPPeerProtocol bspPeer) throws IOException {
+
+		final double[] weights = new double[candidates.size()];
+
+		BSPMessage msg;
+		while ((msg = bspPeer.getCurrentMessage()) != null) {
+			MessageHeader.check(msg, MessageHeader.WEIGHTS);
+			final ByteBuffer buffer = ByteBuffer.wrap(msg.getData());
+
+			for (int c = 0; c < weights.length; c++) {
+				weights[c] += buffer.getLong();
+			}
+		}
+
+		return weights;
+	}
+
+	private static BSPMessage candidatesMessage(int peerIndex, PointStore sample) {
+		final ByteBuffer buffer = ByteBuffer.allocate(sample.size() * sample.dimensions() * 8);
+		for (double coord : sample.toArray()) {
+			buffer.putDouble(coord);
+		}
+		return MessageHeader.create(MessageHeader.CANDIDATES, peerIndex, sample.size(), buffer.array());
+	}
+
+	private static BSPMessage costMessage(int peerIndex, double cost) {
+		final ByteBuffer buffer = ByteBuffer.allocate(8);
+		buffer.putDouble(cost);
+		return MessageHeader.create(MessageHeader.COST, peerIndex, 1, buffer.array());
+	}
+
+	private static BSPMessage weightsMessage(int peerIndex, long[] counts) {
+		final ByteBuffer buffer = ByteBuffer.allocate(counts.length * 8);
+		for (long count : counts) {
+			buffer.putLong(count);
+		}
+		return MessageHeader.create(MessageHeader.WEIGHTS, peerIndex, counts.length, buffer.array());
+	}
+
+	private static void sendToAll(BSPPeerProtocol bspPeer, String[] peers, BSPMessage msg) throws IOException {
+		for (String peer : peers) {
+			bspPeer.send(peer, msg);
+		}
+	}
+}
@@ -0,0 +1,297 @@
+package ee.ut.cs.willmore;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hama.bsp.BSPMessage;
+
+/**
+ * Per-cluster coordinate sums and point counts computed by one peer over its
+ * local partition. Peers exchange these instead of points, so the traffic of
+ * one iteration depends on k and the number of peers only.
+ */
+public class PartialSums {
+
+	private final int peerIndex;
+	private final int k;
+	private final int dimensions;
+
+	private final double[] sums;
+	private final long[] counts;
+	private long changes;
+	private double cost;
+
+	public PartialSums(int peerIndex, int k, int dimensions) {
+		this.peerIndex = peerIndex;
+		this.k = k;
+		this.dimensions = dimensions;
+		this.sums = new double[k * dimensions];
+		this.counts = new long[k];
+	}
+
+	/**
+	 * Add the point starting at {@code offset} of {@code coords} to the cluster.
+	 */
+	public void add(int cluster, double[] coords, int offset) {
+		final int sumOffset = cluster * dimensions;
+		for (int d = 0; d < dimensions; d++) {
+			sums[sumOffset + d] += coords[offset + d];
+		}
+		counts[cluster]++;
+	}
+
+	/**
+	 * Add point {@code i} of {@code points} to the cluster.
+	 */
+	public void add(int cluster, PointStore points, int i) {
+		points.addTo(i, sums, cluster * dimensions);
+		counts[cluster]++;
+	}
+
+	/**
+	 * Add sparse point {@code i} of {@code points} to the cluster.
+	 */
+	public void add(int cluster, SparsePointStore points, int i) {
+		points.addTo(i, sums, cluster * dimensions);
+		counts[cluster]++;
+	}
+
+	/**
+	 * Add a group of {@code count} points whose coordinate sums start at
+	 * {@code offset} of {@code cellSums} to the cluster.
+	 */
+	public void addCell(int cluster, double[] cellSums, int offset, long count) {
+		final int sumOffset = cluster * dimensions;
+		for (int d = 0; d < dimensions; d++) {
+			sums[sumOffset + d] += cellSums[offset + d];
+		}
+		counts[cluster] += count;
+	}
+
+	public void addChanges(long changes) {
+		this.changes += changes;
+	}
+
+	/**
+	 * Add to the squared distances of the points to their means, for
+	 * stopping rules on the WCSS.
+	 */
+	public void addCost(double cost) {
+		this.cost += cost;
+	}
+
+	/**
+	 * Add the sums of another peer into this one. Callers must merge in
+	 * ascending peer index order so that every peer ends up with bit-for-bit
+	 * identical totals.
+	 */
+	public void merge(PartialSums that) {
+		for (int i = 0; i < sums.length; i++) {
+			sums[i] += that.sums[i];
+		}
+		for (int i = 0; i < k; i++) {
+			counts[i] += that.counts[i];
+		}
+		changes += that.changes;
+		cost += that.cost;
+	}
+
+	/**
+	 * Overwrite {@code means} (k interleaved means) with the mean of every
+	 * cluster. Empty clusters keep their previous mean.
+	 */
+	public void updateMeans(double[] means) {
+		for (int c = 0; c < k; c++) {
+			final long count = counts[c];
+
+			if (count == 0) {
+				continue;
+			}
+
+			for (int d = c * dimensions; d < (c + 1) * dimensions; d++) {
+				means[d] = sums[d] / count;
+			}
+		}
+	}
+
+	/**
+	 * Mini-batch update: move every mean towards the batch points assigned to
+	 * it with a per-cluster learning rate of 1 / points seen so far. Applying
+	 * this once per batch equals applying it point by point.
+	 *
+	 * @param seen Points assigned to each cluster over all previous batches,
+	 *        incremented by this batch's counts
+	 */
+	public void updateMeans(double[] means, long[] seen) {
+		for (int c = 0; c < k; c++) {
+			final long count = counts[c];
+
+			if (count == 0) {
+				continue;
+			}
+
+			seen[c] += count;
+
+			for (int d = c * dimensions; d < (c + 1) * dimensions; d++) {
+				means[d] += (sums[d] - count * means[d]) / seen[c];
+			}
+		}
+	}
+
+	/**
+	 * Online update with forgetting: the weight of every mean is scaled by
+	 * {@code decay}, then the mean moves to the weighted mean of itself and
+	 * the batch points assigned to it. A decay of 1 equals
+	 * {@link #updateMeans(double[], long[])}, lower decays let the means
+	 * follow a drifting stream.
+	 *
+	 * @param weights Decayed number of points behind each mean, updated
+	 */
+	public void updateMeans(double[] means, double[] weights, double decay) {
+		for (int c = 0; c < k; c++) {
+			final long count = counts[c];
+
+			weights[c] *= decay;
+
+			if (count == 0) {
+				continue;
+			}
+
+			weights[c] += count;
+
+			for (int d = c * dimensions; d < (c + 1) * dimensions; d++) {
+				means[d] += (sums[d] - count * means[d]) / weights[c];
+			}
+		}
+	}
+
+	public int getPeerIndex() {
+		return peerIndex;
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public int getDimensions() {
+		return dimensions;
+	}
+
+	public long getCount(int cluster) {
+		return counts[cluster];
+	}
+
+	public long getChanges() {
+		return changes;
+	}
+
+	public double getCost() {
+		return cost;
+	}
+
+	/**
+	 * @return Number of points summed over all clusters
+	 */
+	public long getPoints() {
+		long points = 0;
+		for (long count : counts) {
+			points += count;
+		}
+		return points;
+	}
+
+	/**
+	 * Each cluster's sums are sent either dense or, when it is smaller, as
+	 * index/value pairs of the non-zero sums. The sums of sparse points in
+	 * many dimensions are mostly zero.
+	 */
+	public BSPMessage toMessage() {
+
+		final int[] nonZeros = new int[k];
+		int size = 4 + 8 + 8;
+
+		for (int i = 0; i < k; i++) {
+			for (int d = i * dimensions; d < (i + 1) * dimensions; d++) {
+				if (sums[d] != 0) {
+					nonZeros[i]++;
+				}
+			}
+			size += 8 + 4 + (isSparse(nonZeros[i]) ? nonZeros[i] * (4 + 8) : dimensions * 8);
+		}
+
+		final ByteBuffer buffer = ByteBuffer.allocate(size);
+
+		buffer.putInt(dimensions);
+		buffer.putLong(changes);
+		buffer.putDouble(cost);
+
+		for (int i = 0; i < k; i++) {
+			buffer.putLong(counts[i]);
+
+			if (isSparse(nonZeros[i])) {
+				buffer.putInt(nonZeros[i]);
+				for (int d = 0; d < dimensions; d++) {
+					if (sums[i * dimensions + d] != 0) {
+						buffer.putInt(d);
+						buffer.putDouble(sums[i * dimensions + d]);
+					}
+				}
+			} else {
+				buffer.putInt(-1);
+				for (int d = i * dimensions; d < (i + 1) * dimensions; d++) {
+					buffer.putDouble(sums[d]);
+				}
+			}
+		}
+
+		return MessageHeader.create(MessageHeader.SUMS, peerIndex, k, buffer.array());
+	}
+
+	private boolean isSparse(int nonZeros) {
+		return nonZeros * (4 + 8) < dimensions * 8;
+	}
+
+	public static PartialSums fromMessage(BSPMessage msg) {
+
+		MessageHeader.check(msg, MessageHeader.SUMS);
+
+		final PartialSums partial = new PartialSums(MessageHeader.index(msg), MessageHeader.count(msg),
+				ByteBuffer.wrap(msg.getData()).getInt());
+		partial.merge(msg);
+
+		return partial;
+	}
+
+	/**
+	 * Add the sums of another peer's message into this one, as
+	 * {@link #merge(PartialSums)} but without decoding them into a k by
+	 * dimensions array first.
+	 */
+	public void merge(BSPMessage msg) {
+
+		final ByteBuffer buffer = ByteBuffer.wrap(msg.getData());
+
+		if (MessageHeader.count(msg) != k || buffer.getInt() != dimensions) {
+			throw new RuntimeException("Partial sums of another shape from peer " + MessageHeader.index(msg));
+		}
+
+		changes += buffer.getLong();
+		cost += buffer.getDouble();
+
+		for (int i = 0; i < k; i++) {
+			counts[i] += buffer.getLong();
+
+			final int offset = i * dimensions;
+			final int nonZeros = buffer.getInt();
+
+			if (nonZeros < 0) {
+				for (int d = offset; d < offset + dimensions; d++) {
+					sums[d] += buffer.getDouble();
+				}
+			} else {
+				for (int j = 0; j < nonZeros; j++) {
+					sums[offset + buffer.getInt()] += buffer.getDouble();
+				}
+			}
+		}
+	}
+}
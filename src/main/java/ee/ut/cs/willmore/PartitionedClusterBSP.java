@@ -0,0 +1,589 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hama.bsp.BSP;
+import org.apache.hama.bsp.BSPMessage;
+import org.apache.hama.bsp.BSPPeerProtocol;
+import org.apache.zookeeper.KeeperException;
+
+/**
+ * Data-parallel k-means. Unlike {@link KMeansCluster.ClusterBSP}, where every
+ * peer owns one cluster and points migrate between peers, here every peer owns
+ * a fixed partition of the points and keeps all k means. Each iteration a peer
+ * assigns its points locally and sends per-cluster {@link PartialSums} to all
+ * peers, so k is independent of the number of tasks.
+ */
+public class PartitionedClusterBSP extends BSP {
+
+	public static final Log LOG = LogFactory.getLog(PartitionedClusterBSP.class);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private Configuration conf;
+	private FileSystem fileSys;
+	private String masterTask;
+	private int k;
+	private int dimensions;
+	private Precision precision;
+
+	//My fixed partition of the points
+	PointStore points;
+
+	//Source file record of my first point, and the records in the file
+	private int firstRecord;
+	private int sourceRecords;
+
+	//Cluster index of each of my points, -1 if not yet assigned
+	int[] assignments;
+
+	//Current mean of every cluster, interleaved
+	double[] means;
+
+	private Assigner assigner;
+
+	//Pool for the assignment step, null when single threaded
+	private ExecutorService pool;
+
+	//Tree to exchange partial sums over, null for all-to-all
+	private TreeExchange tree;
+
+	//Writes the means and my assignments every few iterations, null when not checkpointing
+	private Checkpoints checkpoints;
+
+	@Override
+	public void bsp(final BSPPeerProtocol bspPeer) throws IOException,
+			KeeperException, InterruptedException {
+
+		final String[] peers = KMeansCluster.sortedPeerNames(bspPeer);
+		final int myIndex = KMeansCluster.indexOf(peers, bspPeer.getPeerName());
+
+		loadPartition(myIndex, peers.length);
+
+		tree = TreeExchange.of(conf, peers, myIndex);
+
+		final int batch = conf.getInt(KMeansCluster.CONF_BATCH, 0);
+
+		//Mini-batches are cheap to rerun, only full iterations are checkpointed
+		checkpoints = batch > 0 ? null : Checkpoints.of(conf, fileSys, peers.length, myIndex);
+
+		try {
+			//All peers find the same latest checkpoint, so either all resume or none
+			final int resumeFrom = checkpoints == null ? -1 : checkpoints.latest();
+
+			if (resumeFrom >= 0) {
+				restore(checkpoints.read(resumeFrom));
+				LOG.info("Resumed from the checkpoint of iteration " + resumeFrom);
+			} else {
+				final PointReader masterReader = isMaster(bspPeer) ? openSource() : null;
+
+				final double[] initMeans = Seeding.choose(conf, bspPeer, peers, myIndex, points, k, masterReader);
+
+				if (masterReader != null) {
+					masterReader.close();
+					masterInitialize(bspPeer, peers, initMeans);
+				}
+
+				bspPeer.sync();
+
+				means = receiveMeans(bspPeer, k, dimensions);
+
+				assignments = new int[points.size()];
+				Arrays.fill(assignments, -1);
+
+				if (batch == 0 && conf.get(KMeansCluster.CONF_WARM_START) != null) {
+					iterateAppended(bspPeer, peers, myIndex);
+				}
+			}
+
+			if (batch > 0) {
+				iterateMiniBatch(bspPeer, peers, myIndex, batch);
+
+				if (!conf.getBoolean(KMeansCluster.CONF_BATCH_LABELS, true)) {
+					if (isMaster(bspPeer)) {
+						writeMeans();
+					}
+					return;
+				}
+			}
+
+			createAssigner();
+
+			if (batch > 0) {
+				//Label every point once with the mini-batch means
+				assigner.assign(means, assignments, new PartialSums(myIndex, k, dimensions));
+			} else {
+				iterate(bspPeer, peers, myIndex, Math.max(resumeFrom, 0));
+			}
+
+			LOG.info("My WCSS is " + wcss());
+
+			writeFinalOutput(bspPeer);
+
+			if (checkpoints != null) {
+				checkpoints.finish();
+			}
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+			if (checkpoints != null) {
+				checkpoints.close();
+			}
+		}
+	}
+
+	private void createAssigner() {
+
+		final String algorithm = conf.get(KMeansCluster.CONF_ASSIGN, Assigner.LLOYD);
+		final int threads = conf.getInt(KMeansCluster.CONF_THREADS, 1);
+
+		if (threads > 1 && points.size() >= threads) {
+			pool = Executors.newFixedThreadPool(threads);
+			assigner = new ParallelAssigner(algorithm, points, k, threads, pool);
+		} else {
+			assigner = Assigner.create(algorithm, points, k);
+		}
+	}
+
+	/**
+	 * Mini-batch k-means: every superstep each peer draws {@code batch} of its
+	 * points at random, assigns only those and sends their sums. Means move
+	 * towards the merged batch with a per-cluster learning rate, see
+	 * {@link PartialSums#updateMeans(double[], long[])}. Runs a fixed number of
+	 * iterations.
+	 */
+	private void iterateMiniBatch(BSPPeerProtocol bspPeer, String[] peers, int myIndex, int batch) throws IOException,
+			KeeperException, InterruptedException {
+
+		final int iterations = conf.getInt(KMeansCluster.CONF_BATCH_ITERATIONS, 100);
+		final Random random = new Random(conf.getLong(KMeansCluster.CONF_SEED, 1) + myIndex);
+
+		final long[] seen = new long[k];
+		final DistanceKernel kernel = DistanceKernel.create(k, dimensions);
+		final double[] squared = new double[k];
+		final double[] point = new double[dimensions];
+
+		for (int iteration = 1; iteration <= iterations; iteration++) {
+
+			kernel.load(means);
+
+			final PartialSums partial = new PartialSums(myIndex, k, dimensions);
+
+			for (int b = 0; b < batch && !points.isEmpty(); b++) {
+				points.copy(random.nextInt(points.size()), point, 0);
+				partial.add(kernel.nearest(point, 0, squared), point, 0);
+			}
+
+			allReduce(bspPeer, peers, tree, partial).updateMeans(means, seen);
+
+			LOG.info("Mini-batch " + iteration + " of " + iterations + " done");
+		}
+	}
+
+	/**
+	 * Warm start on grown data: iterate over the points appended to the
+	 * source file since the run of {@link KMeansCluster#CONF_WARM_START} only,
+	 * for at most {@link KMeansCluster#CONF_WARM_ITERATIONS}, if that run
+	 * clustered the same file, see {@link PreviousModel#appendedFrom}. The points that
+	 * run clustered are taken to stay in their clusters, so every mean is the
+	 * weighted mean of its earlier mean and its appended points, see
+	 * {@link PartialSums#updateMeans(double[], double[], double)}. The full
+	 * iterations that follow start close to their result.
+	 */
+	private void iterateAppended(BSPPeerProtocol bspPeer, String[] peers, int myIndex) throws IOException,
+			KeeperException, InterruptedException {
+
+		final int iterations = conf.getInt(KMeansCluster.CONF_WARM_ITERATIONS, 10);
+
+		final PreviousModel model = PreviousModel.read(fileSys, new Path(conf.get(KMeansCluster.CONF_WARM_START)),
+				dimensions, precision);
+		final long clustered = model.appendedFrom(conf.get(KMeansCluster.CONF_FILE_SOURCE), sourceRecords);
+
+		if (iterations <= 0 || clustered < 0) {
+			LOG.info("No appended points to iterate over first");
+			return;
+		}
+
+		final double[] previousMeans = means.clone();
+		final double[] previousWeights = model.weights(k);
+
+		//My appended points are the tail of my partition
+		final int from = (int) Math.min(points.size(), Math.max(0, clustered - firstRecord));
+
+		final DistanceKernel kernel = DistanceKernel.create(k, dimensions);
+		final double[] squared = new double[k];
+		final double[] point = new double[dimensions];
+
+		for (int iteration = 1; iteration <= iterations; iteration++) {
+
+			kernel.load(means);
+
+			final PartialSums partial = new PartialSums(myIndex, k, dimensions);
+			int changes = 0;
+
+			for (int i = from; i < points.size(); i++) {
+				points.copy(i, point, 0);
+				final int nearest = kernel.nearest(point, 0, squared);
+
+				if (assignments[i] != nearest) {
+					assignments[i] = nearest;
+					changes++;
+				}
+				partial.add(nearest, point, 0);
+			}
+			partial.addChanges(changes);
+
+			final PartialSums total = allReduce(bspPeer, peers, tree, partial);
+
+			means = previousMeans.clone();
+			total.updateMeans(means, previousWeights.clone(), 1);
+
+			LOG.info("Appended points iteration " + iteration + " moved " + total.getChanges() + " of "
+					+ total.getPoints() + " points");
+
+			if (total.getChanges() == 0) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Run k-means iterations until no point changes cluster or a
+	 * {@link Convergence} rule is met.
+	 *
+	 * @param iteration Iterations done before, those of a resumed checkpoint
+	 */
+	private void iterate(BSPPeerProtocol bspPeer, String[] peers, int myIndex, int iteration) throws IOException,
+			KeeperException, InterruptedException {
+
+		final Convergence convergence = Convergence.of(conf);
+
+		while (true) {
+
+			final PartialSums partial = new PartialSums(myIndex, k, dimensions);
+			partial.addChanges(assigner.assign(means, assignments, partial));
+
+			LOG.info("Computed " + assigner.getDistanceCount() + " distances for "
+					+ points.size() + " points");
+
+			if (convergence.needsWcss()) {
+				partial.addCost(wcss());
+			}
+
+			final PartialSums total = allReduce(bspPeer, peers, tree, partial);
+
+			iteration++;
+			LOG.info("Iteration " + iteration + " moved " + total.getChanges() + " points");
+
+			if (total.getChanges() == 0) {
+				break;
+			}
+
+			final double[] previous = convergence.hasRules() ? means.clone() : null;
+			updateStep(total);
+
+			if (previous != null && convergence.isConverged(iterationOf(iteration, previous, means, dimensions, total, convergence))) {
+				break;
+			}
+
+			if (checkpoints != null && checkpoints.isDue(iteration)) {
+				checkpoints.write(iteration, checkpointState());
+			}
+		}
+	}
+
+	/**
+	 * Encode my state at the start of an assignment step. My points are not
+	 * part of it, as they are read again from the source file, whose path is.
+	 */
+	byte[] checkpointState() {
+
+		final byte[] source = conf.get(KMeansCluster.CONF_FILE_SOURCE).getBytes(UTF_8);
+		final ByteBuffer buffer = ByteBuffer.allocate(4 + source.length + 4 + 4 + means.length * 8 + 4 + assignments.length * 4);
+
+		buffer.putInt(source.length);
+		buffer.put(source);
+		buffer.putInt(k);
+		buffer.putInt(dimensions);
+		for (double coord : means) {
+			buffer.putDouble(coord);
+		}
+
+		buffer.putInt(assignments.length);
+		for (int assignment : assignments) {
+			buffer.putInt(assignment);
+		}
+
+		return buffer.array();
+	}
+
+	/**
+	 * Take over the state encoded by {@link #checkpointState()}, after my
+	 * partition was loaded.
+	 */
+	void restore(byte[] state) {
+
+		final ByteBuffer buffer = ByteBuffer.wrap(state);
+
+		final byte[] source = new byte[buffer.getInt()];
+		buffer.get(source);
+
+		if (!new String(source, UTF_8).equals(conf.get(KMeansCluster.CONF_FILE_SOURCE))) {
+			throw new RuntimeException("Checkpoint is of another source file: " + new String(source, UTF_8));
+		}
+
+		if (buffer.getInt() != k || buffer.getInt() != dimensions) {
+			throw new RuntimeException("Checkpoint is of another k or dimension");
+		}
+
+		means = new double[k * dimensions];
+		for (int i = 0; i < means.length; i++) {
+			means[i] = buffer.getDouble();
+		}
+
+		if (buffer.getInt() != points.size()) {
+			throw new RuntimeException("Checkpoint is of another partition of the points");
+		}
+
+		assignments = new int[points.size()];
+		for (int i = 0; i < assignments.length; i++) {
+			assignments[i] = buffer.getInt();
+		}
+	}
+
+	/**
+	 * Figures of one iteration for the stopping rules, WCSS being that of
+	 * the assignment to the {@code previous} means.
+	 */
+	static Convergence.Iteration iterationOf(int iteration, double[] previous, double[] means, int dimensions,
+			PartialSums total, Convergence convergence) {
+		return new Convergence.Iteration(iteration, Convergence.maxShift(previous, means, dimensions),
+				total.getChanges(), total.getPoints(), convergence.needsWcss() ? total.getCost() : Double.NaN);
+	}
+
+	/**
+	 * @return The k interleaved means broadcast by {@link #meansMessage}
+	 */
+	static double[] receiveMeans(BSPPeerProtocol bspPeer, int k, int dimensions) throws IOException {
+
+		double[] means = null;
+
+		BSPMessage msg;
+		while ((msg = bspPeer.getCurrentMessage()) != null) {
+			MessageHeader.check(msg, MessageHeader.MEANS);
+
+			final PointStore initMeans = new PointStore(dimensions, MessageHeader.count(msg));
+			initMeans.append(ByteBuffer.wrap(msg.getData()));
+			means = initMeans.toArray();
+		}
+
+		return means;
+	}
+
+	/**
+	 * Exchange {@code partial} with all peers, all-to-all in one superstep or
+	 * over {@code tree} when not null.
+	 *
+	 * @return The sums over all peers, identical on every peer
+	 */
+	static PartialSums allReduce(BSPPeerProtocol bspPeer, String[] peers, TreeExchange tree, PartialSums partial)
+			throws IOException, KeeperException, InterruptedException {
+
+		if (tree != null) {
+			return tree.allReduce(bspPeer, partial);
+		}
+
+		sendToAll(bspPeer, peers, partial.toMessage());
+
+		bspPeer.sync();
+
+		return mergePartials(bspPeer, peers.length, partial.getK(), partial.getDimensions());
+	}
+
+	/**
+	 * Merge the partial sums of all peers. Messages arrive in no particular
+	 * order, so they are slotted by peer index and added in that order.
+	 */
+	static PartialSums mergePartials(BSPPeerProtocol bspPeer, int numPeers, int k, int dimensions) throws IOException {
+
+		final BSPMessage[] partials = new BSPMessage[numPeers];
+
+		BSPMessage msg;
+		while ((msg = bspPeer.getCurrentMessage()) != null) {
+			MessageHeader.check(msg, MessageHeader.SUMS);
+			partials[MessageHeader.index(msg)] = msg;
+		}
+
+		final PartialSums total = new PartialSums(-1, k, dimensions);
+
+		for (int i = 0; i < numPeers; i++) {
+			if (partials[i] == null) {
+				throw new RuntimeException("Missing partial sums from peer " + i);
+			}
+			total.merge(partials[i]);
+		}
+
+		return total;
+	}
+
+	private void updateStep(PartialSums total) {
+		total.updateMeans(means);
+	}
+
+	/**
+	 * Within cluster sum of squares of my partition.
+	 */
+	private double wcss() {
+		double sum = 0;
+
+		for (int i = 0; i < points.size(); i++) {
+			sum += points.squaredDistance(i, means, assignments[i]);
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Read my own slice of the source file. All peers do this in parallel.
+	 */
+	private void loadPartition(int myIndex, int numPeers) throws IOException {
+
+		final PointReader reader = openSource();
+
+		reader.readSlice(myIndex, numPeers, points);
+		reader.close();
+
+		firstRecord = PointReader.sliceStart(reader.getNumPoints(), myIndex, numPeers);
+		sourceRecords = reader.getNumPoints();
+
+		LOG.info("My partition has " + points.size() + " points");
+	}
+
+	private PointReader openSource() throws IOException {
+		return PointReader.open(fileSys, new Path(conf.get(KMeansCluster.CONF_FILE_SOURCE)), dimensions, precision);
+	}
+
+	/**
+	 * Broadcast the initial means to all peers.
+	 */
+	private void masterInitialize(final BSPPeerProtocol bspPeer, final String[] peers, final double[] initMeans) throws IOException {
+
+		LOG.info("Starting Master");
+
+		sendToAll(bspPeer, peers, meansMessage(KMeansCluster.indexOf(peers, bspPeer.getPeerName()), k, initMeans));
+
+		LOG.info("Initial means sent to peers");
+	}
+
+	/**
+	 * @param senderIndex Index of the sending peer
+	 */
+	static BSPMessage meansMessage(int senderIndex, int k, double[] means) {
+
+		final ByteBuffer buffer = ByteBuffer.allocate(means.length * 8);
+		for (double coord : means) {
+			buffer.putDouble(coord);
+		}
+
+		return MessageHeader.create(MessageHeader.MEANS, senderIndex, k, buffer.array());
+	}
+
+	static void sendToAll(BSPPeerProtocol bspPeer, String[] peers, BSPMessage msg) throws IOException {
+		for (String peer : peers) {
+			bspPeer.send(peer, msg);
+		}
+	}
+
+	/**
+	 * Write one file per cluster that has points in my partition, in the same
+	 * format as {@link KMeansCluster.ClusterBSP}: the mean followed by the points.
+	 */
+	private void writeFinalOutput(final BSPPeerProtocol bspPeer) throws IOException {
+
+		final List<PointStore> clusters = new ArrayList<PointStore>(k);
+
+		for (int c = 0; c < k; c++) {
+			clusters.add(new PointStore(dimensions, precision));
+		}
+
+		for (int i = 0; i < points.size(); i++) {
+			clusters.get(assignments[i]).add(points, i);
+		}
+
+		final String prefix = conf.get(KMeansCluster.CONF_FILE_OUT) + "/" + bspPeer.getPeerName().replace(":", "_");
+
+		for (int c = 0; c < k; c++) {
+
+			if (clusters.get(c).isEmpty()) {
+				continue;
+			}
+
+			final PointWriter writer = new PointWriter(fileSys.create(new Path(prefix + "_" + c), true), precision);
+
+			writer.write(DenseVector.copyOf(means, c * dimensions, dimensions));
+			writer.write(clusters.get(c));
+
+			writer.close();
+		}
+
+		if (isMaster(bspPeer)) {
+			PreviousModel.writeSource(fileSys, new Path(conf.get(KMeansCluster.CONF_FILE_OUT)),
+					conf.get(KMeansCluster.CONF_FILE_SOURCE), sourceRecords);
+		}
+
+		LOG.info("Wrote final output to: " + prefix + "_*");
+	}
+
+	/**
+	 * Write only the k means, one record each, when labels are not wanted.
+	 */
+	private void writeMeans() throws IOException {
+
+		final Path path = new Path(conf.get(KMeansCluster.CONF_FILE_OUT) + "/means");
+		final PointWriter writer = new PointWriter(fileSys.create(path, true), precision);
+
+		for (int c = 0; c < k; c++) {
+			writer.write(DenseVector.copyOf(means, c * dimensions, dimensions));
+		}
+
+		writer.close();
+
+		LOG.info("Wrote means to: " + path);
+	}
+
+	private boolean isMaster(BSPPeerProtocol bspPeer) {
+		return bspPeer.getPeerName().equals(masterTask);
+	}
+
+	public Configuration getConf() {
+		return conf;
+	}
+
+	public void setConf(Configuration conf) {
+		this.conf = conf;
+		this.masterTask = conf.get(KMeansCluster.CONF_MASTER_TASK);
+		this.k = conf.getInt(KMeansCluster.CONF_K, 0);
+		this.dimensions = conf.getInt(KMeansCluster.CONF_DIMENSIONS, KMeansCluster.DEFAULT_DIMENSIONS);
+		this.precision = Precision.of(conf);
+		this.points = new PointStore(dimensions, precision);
+
+		try {
+			fileSys = FileSystem.get(conf);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -10,7 +10,8 @@ public interface PointGenerator {
 	/**
 	 * Create dataset of points saved on the Hadoop
 	 * file-system at the specified {@code fileName}. 
-	 * {@code numPoints} of 3D double-value points, with dimensions X,Y and Z each within [0,{@code range}).
+	 * {@code numPoints} points of {@code dimensions} coordinates each, within [0,{@code range}),
+	 * written in {@code precision}.
 	 * 
 	 * Noise is a number of extra random points in range.
 	 * 
@@ -19,9 +20,10 @@ public interface PointGenerator {
 	 * @param numPoints
 	 * @param range
 	 * @param dimensions 
+	 * @param precision 
 	 * @throws IOException
 	 */ 
 	void generateSourceFile(FileSystem fileSys, Path fileName, int numPoints,
-			int range, int noise, int dimensions) throws IOException;
+			int range, int noise, int dimensions, Precision precision) throws IOException;
 	
 }
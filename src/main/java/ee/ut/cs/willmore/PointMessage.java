@@ -9,16 +9,16 @@ import java.util.List;
 public class PointMessage {
 	
 	private String tag;
-	private List<Point3D> points;
+	private List<DenseVector> points;
 	
-	public PointMessage(String tag, List<Point3D> points) {
+	public PointMessage(String tag, List<DenseVector> points) {
 		this.tag = tag;
 		this.points = points;
 	}
 	
-	public PointMessage(String tag, Point3D point) {
+	public PointMessage(String tag, DenseVector point) {
 		this.tag = tag;
-		this.points = new ArrayList<Point3D>(1);
+		this.points = new ArrayList<DenseVector>(1);
 		this.points.add(point);
 	}
 	
@@ -29,19 +29,28 @@ public class PointMessage {
 	    this.tag = new String(tagBytes);
 	    
 	    int numPoints = in.readInt();
-	    this.points = new ArrayList<Point3D>(numPoints);
+	    int dimensions = in.readInt();
+	    this.points = new ArrayList<DenseVector>(numPoints);
 	    for (int i = 0; i < numPoints; i++) {
-	    	this.points.add(new Point3D(in.readDouble(), in.readDouble(), in.readDouble()));
+	    	final double[] values = new double[dimensions];
+	    	for (int d = 0; d < dimensions; d++) {
+	    		values[d] = in.readDouble();
+	    	}
+	    	this.points.add(new DenseVector(values));
 	    }
 	}
 
 	//@Override
 	public void write(DataOutput out) throws IOException {
-		out.writeBytes(tag);
-		for (Point3D p : points) {
-			out.writeDouble(p.x);
-			out.writeDouble(p.y);
-			out.writeDouble(p.z);
+		final byte[] tagBytes = tag.getBytes();
+		out.writeInt(tagBytes.length);
+		out.write(tagBytes);
+		out.writeInt(points.size());
+		out.writeInt(points.isEmpty() ? 0 : points.get(0).dimensions());
+		for (DenseVector p : points) {
+			for (int d = 0; d < p.dimensions(); d++) {
+				out.writeDouble(p.get(d));
+			}
 		}
 
 	}
@@ -52,7 +61,7 @@ public class PointMessage {
 	}
 
 	//@Override
-	public List<Point3D> getData() {
+	public List<DenseVector> getData() {
 		return this.points;
 	}
 
@@ -0,0 +1,117 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Reads points from a source file as written by the {@link PointGenerator}s:
+ * an int point count followed by one record of {@code dimensions} doubles, or
+ * floats, per point. Neither the dimension nor the {@link Precision} is stored
+ * in the file, both are part of the job configuration. Records can be read from any offset, so every peer can load
+ * its own slice of the file.
+ */
+public class PointReader {
+
+	static final int HEADER_BYTES = 4;
+
+	//Number of records decoded per read from the stream
+	private static final int BLOCK_RECORDS = 4096;
+
+	private final FSDataInputStream in;
+	private final int dimensions;
+	private final Precision precision;
+	private final int recordBytes;
+	private final int numPoints;
+
+	public PointReader(FSDataInputStream inputStream, int dimensions, Precision precision) throws IOException {
+		this.in = inputStream;
+		this.dimensions = dimensions;
+		this.precision = precision;
+		this.recordBytes = dimensions * precision.bytes;
+		this.numPoints = in.readInt();
+	}
+
+	public static PointReader open(FileSystem fileSys, Path srcFilePath, int dimensions, Precision precision) throws IOException {
+
+		if (!fileSys.exists(srcFilePath)) {
+			throw new RuntimeException("Could not find source file:" + srcFilePath.getName());
+		}
+
+		return new PointReader(fileSys.open(srcFilePath), dimensions, precision);
+	}
+
+	public int getDimensions() {
+		return dimensions;
+	}
+
+	public Precision getPrecision() {
+		return precision;
+	}
+
+	public int getNumPoints() {
+		return numPoints;
+	}
+
+	/**
+	 * @return First record of the slice {@code index} when splitting
+	 *         {@code numPoints} records into {@code parts} near-equal slices.
+	 */
+	public static int sliceStart(int numPoints, int index, int parts) {
+		return (int) ((long) numPoints * index / parts);
+	}
+
+	/**
+	 * Read the {@code index}-th of {@code parts} contiguous slices of the file
+	 * into {@code points}.
+	 */
+	public void readSlice(int index, int parts, PointStore points) throws IOException {
+		final int first = sliceStart(numPoints, index, parts);
+		read(first, sliceStart(numPoints, index + 1, parts) - first, points);
+	}
+
+	/**
+	 * Read {@code count} records starting at record {@code first} into
+	 * {@code points}.
+	 */
+	public void read(int first, int count, PointStore points) throws IOException {
+
+		if (points.dimensions() != dimensions) {
+			throw new IllegalArgumentException("Store has " + points.dimensions() + " dimensions, file " + dimensions);
+		}
+
+		if (points.precision() != precision) {
+			throw new IllegalArgumentException("Store holds " + points.precision() + ", file " + precision);
+		}
+
+		if (first < 0 || count < 0 || (long) first + count > numPoints) {
+			throw new IOException("Records [" + first + "," + (first + count)
+					+ ") out of range, file has " + numPoints);
+		}
+
+		in.seek(HEADER_BYTES + (long) first * recordBytes);
+
+		final byte[] block = new byte[Math.min(count, BLOCK_RECORDS) * recordBytes];
+		final ByteBuffer buffer = ByteBuffer.wrap(block);
+
+		int remaining = count;
+		while (remaining > 0) {
+			final int records = Math.min(remaining, BLOCK_RECORDS);
+
+			in.readFully(block, 0, records * recordBytes);
+			buffer.clear();
+			buffer.limit(records * recordBytes);
+
+			points.append(buffer);
+
+			remaining -= records;
+		}
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,349 @@
+package ee.ut.cs.willmore;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable store of points kept in one flat, interleaved array
+ * (x0,y0,z0,x1,y1,z1,... for 3 dimensions). Compared to a list of point
+ * objects there is no per-point object, scans walk memory sequentially and
+ * removal is O(1) by moving the last point into the hole, so point order is
+ * not preserved.
+ *
+ * Coordinates are held as doubles, or as floats at half the memory when
+ * created with {@link Precision#FLOAT}. Readers copy points out as doubles
+ * with {@link #copy} and {@link #addTo}, so they work with either.
+ */
+public class PointStore {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private final int dimensions;
+	private final Precision precision;
+
+	//Exactly one of these backs the store, as chosen by the precision
+	private double[] coords;
+	private float[] floatCoords;
+
+	private int size;
+
+	public PointStore(int dimensions) {
+		this(dimensions, DEFAULT_CAPACITY);
+	}
+
+	public PointStore(int dimensions, int capacity) {
+		this(dimensions, capacity, Precision.DOUBLE);
+	}
+
+	public PointStore(int dimensions, Precision precision) {
+		this(dimensions, DEFAULT_CAPACITY, precision);
+	}
+
+	public PointStore(int dimensions, int capacity, Precision precision) {
+		if (dimensions < 1) {
+			throw new IllegalArgumentException("Dimensions must be positive: " + dimensions);
+		}
+		this.dimensions = dimensions;
+		this.precision = precision;
+
+		if (precision == Precision.FLOAT) {
+			this.floatCoords = new float[Math.max(capacity, 1) * dimensions];
+		} else {
+			this.coords = new double[Math.max(capacity, 1) * dimensions];
+		}
+	}
+
+	public int dimensions() {
+		return dimensions;
+	}
+
+	public Precision precision() {
+		return precision;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return Coordinate {@code d} of point {@code i}
+	 */
+	public double get(int i, int d) {
+		return coords != null ? coords[i * dimensions + d] : floatCoords[i * dimensions + d];
+	}
+
+	public DenseVector get(int i) {
+		checkIndex(i);
+		final double[] values = new double[dimensions];
+		copy(i, values, 0);
+		return new DenseVector(values);
+	}
+
+	/**
+	 * Copy point {@code i} into {@code to} from {@code offset} on.
+	 */
+	public void copy(int i, double[] to, int offset) {
+		final int from = i * dimensions;
+
+		if (coords != null) {
+			System.arraycopy(coords, from, to, offset, dimensions);
+		} else {
+			for (int d = 0; d < dimensions; d++) {
+				to[offset + d] = floatCoords[from + d];
+			}
+		}
+	}
+
+	/**
+	 * Add point {@code i} to the sums starting at {@code offset} of
+	 * {@code sums}.
+	 */
+	public void addTo(int i, double[] sums, int offset) {
+		final int from = i * dimensions;
+
+		if (coords != null) {
+			for (int d = 0; d < dimensions; d++) {
+				sums[offset + d] += coords[from + d];
+			}
+		} else {
+			for (int d = 0; d < dimensions; d++) {
+				sums[offset + d] += floatCoords[from + d];
+			}
+		}
+	}
+
+	/**
+	 * Subtract point {@code i} from the sums starting at {@code offset} of
+	 * {@code sums}, undoing {@link #addTo}.
+	 */
+	public void subtractFrom(int i, double[] sums, int offset) {
+		final int from = i * dimensions;
+
+		if (coords != null) {
+			for (int d = 0; d < dimensions; d++) {
+				sums[offset + d] -= coords[from + d];
+			}
+		} else {
+			for (int d = 0; d < dimensions; d++) {
+				sums[offset + d] -= floatCoords[from + d];
+			}
+		}
+	}
+
+	/**
+	 * Squared Euclidean distance between point {@code i} and the {@code c}-th
+	 * point of {@code centers}, an interleaved array of the same dimension.
+	 */
+	public double squaredDistance(int i, double[] centers, int c) {
+
+		if (coords != null) {
+			return DistanceKernel.squaredDistance(coords, i * dimensions, centers, c * dimensions, dimensions);
+		}
+
+		final int from = i * dimensions;
+		final int to = c * dimensions;
+		double sum = 0;
+
+		for (int d = 0; d < dimensions; d++) {
+			final double delta = floatCoords[from + d] - centers[to + d];
+			sum += delta * delta;
+		}
+		return sum;
+	}
+
+	/**
+	 * Euclidean distance between point {@code i} and {@code p}.
+	 */
+	public double distance(int i, DenseVector p) {
+		return Math.sqrt(squaredDistance(i, p.values(), 0));
+	}
+
+	/**
+	 * Euclidean distance between point {@code i} and the {@code c}-th
+	 * point of {@code centers}, an interleaved array of the same dimension.
+	 */
+	public double distance(int i, double[] centers, int c) {
+		return Math.sqrt(squaredDistance(i, centers, c));
+	}
+
+	/**
+	 * Add the point starting at {@code offset} of {@code values}.
+	 */
+	public void add(double[] values, int offset) {
+		ensureCapacity(size + 1);
+
+		if (coords != null) {
+			System.arraycopy(values, offset, coords, size * dimensions, dimensions);
+		} else {
+			for (int d = 0; d < dimensions; d++) {
+				floatCoords[size * dimensions + d] = (float) values[offset + d];
+			}
+		}
+		size++;
+	}
+
+	/**
+	 * Add point {@code i} of {@code that}, a store of the same dimension.
+	 */
+	public void add(PointStore that, int i) {
+		if (that.precision == precision) {
+			ensureCapacity(size + 1);
+
+			if (coords != null) {
+				System.arraycopy(that.coords, i * dimensions, coords, size * dimensions, dimensions);
+			} else {
+				System.arraycopy(that.floatCoords, i * dimensions, floatCoords, size * dimensions, dimensions);
+			}
+			size++;
+		} else {
+			add(that.get(i).values(), 0);
+		}
+	}
+
+	public void add(DenseVector p) {
+		if (p.dimensions() != dimensions) {
+			throw new IllegalArgumentException("Expected " + dimensions + " dimensions, got " + p.dimensions());
+		}
+		add(p.values(), 0);
+	}
+
+	/**
+	 * Append every remaining record of {@code buffer}, {@link #dimensions()}
+	 * coordinates in my precision each, as encoded in point messages and
+	 * source files. The records are copied in bulk straight into the backing
+	 * array, without a per-point object.
+	 */
+	public void append(ByteBuffer buffer) {
+		final int records = buffer.remaining() / (dimensions * precision.bytes);
+		final int length = records * dimensions;
+
+		ensureCapacity(size + records);
+
+		if (coords != null) {
+			buffer.asDoubleBuffer().get(coords, size * dimensions, length);
+		} else {
+			buffer.asFloatBuffer().get(floatCoords, size * dimensions, length);
+		}
+
+		buffer.position(buffer.position() + length * precision.bytes);
+		size += records;
+	}
+
+	/**
+	 * Encode point {@code i} into {@code buffer} in my precision.
+	 */
+	public void put(int i, ByteBuffer buffer) {
+		final int from = i * dimensions;
+
+		if (coords != null) {
+			for (int d = 0; d < dimensions; d++) {
+				buffer.putDouble(coords[from + d]);
+			}
+		} else {
+			for (int d = 0; d < dimensions; d++) {
+				buffer.putFloat(floatCoords[from + d]);
+			}
+		}
+	}
+
+	/**
+	 * Encode the points {@code indices[from, to)} as records in my precision,
+	 * ready for {@link #append}, copying each point in bulk from the backing
+	 * array.
+	 */
+	public byte[] encode(int[] indices, int from, int to) {
+		final byte[] data = new byte[(to - from) * dimensions * precision.bytes];
+		encode(indices, from, to, data);
+		return data;
+	}
+
+	/**
+	 * Encode as {@link #encode(int[], int, int)} into the start of
+	 * {@code data}, e.g. a pooled buffer.
+	 */
+	public void encode(int[] indices, int from, int to, byte[] data) {
+		final ByteBuffer buffer = ByteBuffer.wrap(data);
+
+		if (coords != null) {
+			final DoubleBuffer view = buffer.asDoubleBuffer();
+			for (int j = from; j < to; j++) {
+				view.put(coords, indices[j] * dimensions, dimensions);
+			}
+		} else {
+			final FloatBuffer view = buffer.asFloatBuffer();
+			for (int j = from; j < to; j++) {
+				view.put(floatCoords, indices[j] * dimensions, dimensions);
+			}
+		}
+	}
+
+	/**
+	 * Remove point {@code i} by moving the last point into its place.
+	 */
+	public void swapRemove(int i) {
+		checkIndex(i);
+
+		size--;
+
+		if (i != size) {
+			if (coords != null) {
+				System.arraycopy(coords, size * dimensions, coords, i * dimensions, dimensions);
+			} else {
+				System.arraycopy(floatCoords, size * dimensions, floatCoords, i * dimensions, dimensions);
+			}
+		}
+	}
+
+	/**
+	 * @return The backing array of interleaved coordinates of a double
+	 *         precision store, point {@code i} starting at
+	 *         {@code i * dimensions()}. Only valid until the store next grows.
+	 */
+	double[] coordinates() {
+		if (coords == null) {
+			throw new IllegalStateException("Store holds " + precision + " coordinates");
+		}
+		return coords;
+	}
+
+	/**
+	 * @return Copy of the interleaved coordinates of all points, as doubles.
+	 */
+	public double[] toArray() {
+		if (coords != null) {
+			return Arrays.copyOf(coords, size * dimensions);
+		}
+
+		final double[] values = new double[size * dimensions];
+		for (int offset = 0; offset < values.length; offset++) {
+			values[offset] = floatCoords[offset];
+		}
+		return values;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	private void ensureCapacity(int points) {
+		if (coords != null) {
+			if (points * dimensions > coords.length) {
+				coords = Arrays.copyOf(coords, Math.max(points, 2 * coords.length / dimensions) * dimensions);
+			}
+		} else if (points * dimensions > floatCoords.length) {
+			floatCoords = Arrays.copyOf(floatCoords, Math.max(points, 2 * floatCoords.length / dimensions) * dimensions);
+		}
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		}
+	}
+}
@@ -9,23 +9,40 @@ public class PointWriter {
 
 	
 	private final FSDataOutputStream out;
+	private final Precision precision;
 
 	public PointWriter(FSDataOutputStream outputStream) {
+		this(outputStream, Precision.DOUBLE);
+	}
+
+	/**
+	 * @param precision Number format of every coordinate written
+	 */
+	public PointWriter(FSDataOutputStream outputStream, Precision precision) {
 		this.out = outputStream;
+		this.precision = precision;
 	}
 	
-	public void write(Point3D point) throws IOException {
-		out.writeDouble(point.x); 
-		out.writeDouble(point.y); 
-		out.writeDouble(point.z); 
+	public void write(DenseVector point) throws IOException {
+		for (int d = 0; d < point.dimensions(); d++) {
+			precision.write(out, point.get(d)); 
+		}
 	}
 	
-	public void write(Collection<Point3D> points) throws IOException {
-		for (Point3D p : points) {
+	public void write(Collection<DenseVector> points) throws IOException {
+		for (DenseVector p : points) {
 			write(p);
 		}
 	}
 	
+	public void write(PointStore points) throws IOException {
+		for (int i = 0; i < points.size(); i++) {
+			for (int d = 0; d < points.dimensions(); d++) {
+				precision.write(out, points.get(i, d)); 
+			}
+		}
+	}
+	
 	public void close() throws IOException {
 		out.close();
 	}
@@ -0,0 +1,83 @@
+package ee.ut.cs.willmore;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Number format of point coordinates in {@link PointStore}s, point messages,
+ * source and output files. {@link #FLOAT} halves memory, bytes on the wire
+ * and on disk for points, at about 7 significant digits. Means, sums and
+ * distances are always computed in double.
+ */
+public enum Precision {
+
+	DOUBLE(8) {
+		@Override
+		void put(ByteBuffer buffer, double value) {
+			buffer.putDouble(value);
+		}
+
+		@Override
+		double get(ByteBuffer buffer) {
+			return buffer.getDouble();
+		}
+
+		@Override
+		void write(DataOutput out, double value) throws IOException {
+			out.writeDouble(value);
+		}
+
+		@Override
+		double read(DataInput in) throws IOException {
+			return in.readDouble();
+		}
+	},
+
+	FLOAT(4) {
+		@Override
+		void put(ByteBuffer buffer, double value) {
+			buffer.putFloat((float) value);
+		}
+
+		@Override
+		double get(ByteBuffer buffer) {
+			return buffer.getFloat();
+		}
+
+		@Override
+		void write(DataOutput out, double value) throws IOException {
+			out.writeFloat((float) value);
+		}
+
+		@Override
+		double read(DataInput in) throws IOException {
+			return in.readFloat();
+		}
+	};
+
+	//Bytes per coordinate
+	final int bytes;
+
+	private Precision(int bytes) {
+		this.bytes = bytes;
+	}
+
+	abstract void put(ByteBuffer buffer, double value);
+
+	abstract double get(ByteBuffer buffer);
+
+	abstract void write(DataOutput out, double value) throws IOException;
+
+	abstract double read(DataInput in) throws IOException;
+
+	/**
+	 * @return Precision of points as set by {@link KMeansCluster#CONF_FLOAT}
+	 */
+	static Precision of(Configuration conf) {
+		return conf.getBoolean(KMeansCluster.CONF_FLOAT, false) ? FLOAT : DOUBLE;
+	}
+}
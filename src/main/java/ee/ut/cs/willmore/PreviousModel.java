@@ -0,0 +1,276 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * The means of an earlier run, read from its output directory, to start a
+ * run on grown data from, see {@link KMeansCluster#CONF_WARM_START}.
+ * <p>
+ * Every output file of {@link KMeansCluster.ClusterBSP} and
+ * {@link PartitionedClusterBSP} holds a mean followed by the points of its
+ * cluster, so the number of points behind every mean follows from the file
+ * length. Partition mode writes the same mean into the file of every peer
+ * that had points of the cluster; identical means are taken once with their
+ * points added up. A file without points is of a cluster that ended empty,
+ * its record is no mean and is skipped. A means file alone, as written by
+ * mini-batch without labels or published by online mode, gives the means
+ * without their points. Of the means files online mode publishes only the
+ * latest is read.
+ * <p>
+ * Next to its output files a run writes {@value #SOURCE_FILE}, naming the
+ * source file it clustered and its number of records, so that a warm start
+ * can tell whether its source is that file with points appended.
+ */
+public class PreviousModel {
+
+	public static final Log LOG = LogFactory.getLog(PreviousModel.class);
+
+	static final String SOURCE_FILE = "_source";
+
+	private final PointStore means;
+
+	//Points behind every mean in the earlier run
+	private final List<Long> counts;
+
+	//Points clustered by the earlier run, -1 if its output does not tell
+	private final long clustered;
+
+	//Source file of the earlier run and its records then, null and -1 if not written
+	private final String source;
+	private final long sourceRecords;
+
+	private PreviousModel(PointStore means, List<Long> counts, long clustered, String source, long sourceRecords) {
+		this.means = means;
+		this.counts = counts;
+		this.clustered = clustered;
+		this.source = source;
+		this.sourceRecords = sourceRecords;
+	}
+
+	/**
+	 * Record in output directory {@code dir} that the run clustered
+	 * {@code records} points of {@code source}.
+	 */
+	public static void writeSource(FileSystem fileSys, Path dir, String source, long records) throws IOException {
+
+		final FSDataOutputStream out = fileSys.create(new Path(dir, SOURCE_FILE), true);
+		try {
+			out.writeUTF(source);
+			out.writeLong(records);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read the means from the output files in {@code dir}, in file name order.
+	 * Names starting with "_" or "." are not output files.
+	 */
+	public static PreviousModel read(FileSystem fileSys, Path dir, int dimensions, Precision precision) throws IOException {
+
+		if (!fileSys.exists(dir)) {
+			throw new RuntimeException("Could not find previous output: " + dir);
+		}
+
+		final List<FileStatus> files = new ArrayList<FileStatus>();
+		for (FileStatus status : fileSys.listStatus(dir)) {
+			final String name = status.getPath().getName();
+
+			if (!status.isDir() && !name.startsWith("_") && !name.startsWith(".")) {
+				files.add(status);
+			}
+		}
+
+		Collections.sort(files);
+
+		//Online mode keeps the previous means next to the latest, the last name
+		FileStatus published = null;
+		for (FileStatus status : files) {
+			if (status.getPath().getName().startsWith(StreamingClusterBSP.PUBLISHED_MEANS)) {
+				published = status;
+			}
+		}
+		for (int i = files.size() - 1; i >= 0; i--) {
+			if (files.get(i).getPath().getName().startsWith(StreamingClusterBSP.PUBLISHED_MEANS)
+					&& files.get(i) != published) {
+				files.remove(i);
+			}
+		}
+
+		final int recordBytes = dimensions * precision.bytes;
+		final PointStore means = new PointStore(dimensions, precision);
+		final List<Long> counts = new ArrayList<Long>();
+
+		//Slot of every mean read so far, by its encoded record
+		final Map<ByteBuffer, Integer> slots = new HashMap<ByteBuffer, Integer>();
+
+		long clustered = 0;
+
+		for (FileStatus status : files) {
+
+			if (status.getLen() % recordBytes != 0) {
+				throw new RuntimeException("Not an output file of " + dimensions + " dimensions in " + precision + ": "
+						+ status.getPath());
+			}
+
+			final long records = status.getLen() / recordBytes;
+			final boolean meansOnly = status == published || status.getPath().getName().equals("means");
+
+			//A migrate mode peer whose cluster ended empty writes the origin alone, no mean
+			if (!meansOnly && records == 1) {
+				continue;
+			}
+
+			//A means file holds every mean, an output file one mean and its points
+			final byte[] data = new byte[(int) (meansOnly ? records : Math.min(records, 1)) * recordBytes];
+			final FSDataInputStream in = fileSys.open(status.getPath());
+			try {
+				in.readFully(data);
+			} finally {
+				in.close();
+			}
+
+			for (int r = 0; r < data.length / recordBytes; r++) {
+				final ByteBuffer record = ByteBuffer.wrap(data, r * recordBytes, recordBytes).slice();
+				final long points = meansOnly ? 0 : records - 1;
+
+				Integer slot = slots.get(record);
+				if (slot == null) {
+					slot = means.size();
+					slots.put(record, slot);
+					means.append(record.duplicate());
+					counts.add(points);
+				} else {
+					counts.set(slot, counts.get(slot) + points);
+				}
+			}
+
+			clustered = meansOnly || clustered < 0 ? -1 : clustered + records - 1;
+		}
+
+		if (means.isEmpty()) {
+			throw new RuntimeException("No means in previous output: " + dir);
+		}
+
+		String source = null;
+		long sourceRecords = -1;
+
+		final Path sourceFile = new Path(dir, SOURCE_FILE);
+		if (fileSys.exists(sourceFile)) {
+			final FSDataInputStream in = fileSys.open(sourceFile);
+			try {
+				source = in.readUTF();
+				sourceRecords = in.readLong();
+			} finally {
+				in.close();
+			}
+		}
+
+		LOG.info("Read " + means.size() + " means of " + (clustered < 0 ? "an unknown number of" : clustered)
+				+ " points from " + dir);
+
+		return new PreviousModel(means, counts, clustered, source, sourceRecords);
+	}
+
+	/**
+	 * @return Number of means read
+	 */
+	public int size() {
+		return means.size();
+	}
+
+	/**
+	 * @return The means read, interleaved, in file name order
+	 */
+	public double[] means() {
+		return means.toArray();
+	}
+
+	/**
+	 * @return Points clustered by the earlier run, -1 if not known
+	 */
+	public long getClustered() {
+		return clustered;
+	}
+
+	/**
+	 * Tell whether {@code source}, now of {@code records} records, is the
+	 * source file of the earlier run with points appended, that is the same
+	 * file, grown, and the earlier output holds all points it had then.
+	 *
+	 * @return Records of {@code source} the earlier run clustered, its first
+	 *         ones, or -1 if not known to be so
+	 */
+	public long appendedFrom(String source, long records) {
+
+		if (this.source == null) {
+			LOG.info("Previous output does not name its source file");
+			return -1;
+		} else if (!this.source.equals(source)) {
+			LOG.info("Previous output is of another source file: " + this.source);
+			return -1;
+		} else if (sourceRecords != clustered) {
+			LOG.info("Previous output holds " + clustered + " of the " + sourceRecords + " points of its source");
+			return -1;
+		} else if (sourceRecords >= records) {
+			LOG.info("Source file has " + records + " points, the previous output " + sourceRecords);
+			return -1;
+		}
+
+		return sourceRecords;
+	}
+
+	/**
+	 * Initial means for {@code k} clusters. A run with empty clusters leaves
+	 * fewer means than k, those missing are the first points of
+	 * {@code source}, as with {@link Seeding#FIRST}.
+	 *
+	 * @return k interleaved means
+	 */
+	public double[] initialMeans(int k, PointReader source) throws IOException {
+
+		if (means.size() > k) {
+			throw new RuntimeException("Previous output has " + means.size() + " means, more than " + k + " clusters");
+		}
+
+		final PointStore initial = new PointStore(means.dimensions(), k, means.precision());
+		for (int i = 0; i < means.size(); i++) {
+			initial.add(means, i);
+		}
+
+		if (initial.size() < k) {
+			LOG.info("Taking " + (k - initial.size()) + " more means from the source file");
+			source.read(0, k - initial.size(), initial);
+		}
+
+		return initial.toArray();
+	}
+
+	/**
+	 * @return Points behind each of the {@code k} means of
+	 *         {@link #initialMeans}, 0 for those not from the earlier run
+	 */
+	public double[] weights(int k) {
+
+		final double[] weights = new double[k];
+		for (int c = 0; c < counts.size() && c < k; c++) {
+			weights[c] = counts.get(c);
+		}
+
+		return weights;
+	}
+}
@@ -12,7 +12,7 @@ public class RandomPointGenerator implements PointGenerator {
 	/**
 	 * Create a randomly generated dataset of points saved on the Hadoop
 	 * file-system at the specified {@code fileName}. 
-	 * {@code numPoints} of 3D double-value points, with X,Y,Z each within [0,{@code range}).
+	 * {@code numPoints} points of {@code dimensions} coordinates in {@code precision}, each within [0,{@code range}).
 	 * 
 	 * @param fileSys
 	 * @param fileName
@@ -21,7 +21,7 @@ public class RandomPointGenerator implements PointGenerator {
 	 * @throws IOException
 	 */
 	@Override
-	public void generateSourceFile(FileSystem fileSys, Path fileName, int numPoints, int range, int noise, int dimensions) throws IOException {
+	public void generateSourceFile(FileSystem fileSys, Path fileName, int numPoints, int range, int noise, int dimensions, Precision precision) throws IOException {
 		
 		final FSDataOutputStream out = fileSys.create(fileName, true);
 		final Random random = new Random();
@@ -30,9 +30,9 @@ public class RandomPointGenerator implements PointGenerator {
 		
 		for (int i = 0; i < numPoints; i++) {
 			
-			out.writeDouble(random.nextDouble()*range); // X
-			out.writeDouble(random.nextDouble()*range); // Y 
-			out.writeDouble(dimensions == 2 ? 0 : random.nextDouble()*range); // Z		
+			for (int d = 0; d < dimensions; d++) {
+				precision.write(out, random.nextDouble()*range);
+			}
 		}
 		
 		out.close();
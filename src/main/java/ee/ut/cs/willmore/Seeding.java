@@ -0,0 +1,264 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hama.bsp.BSPPeerProtocol;
+import org.apache.zookeeper.KeeperException;
+
+/**
+ * Choice of the initial means.
+ * <ul>
+ * <li>{@link #FIRST}: the first k points of the source file.</li>
+ * <li>{@link #PLUS_PLUS}: k-means++ over the whole source file, run by the
+ * master alone. Only suitable for data that fits on one peer.</li>
+ * <li>{@link #PARALLEL}: k-means||, sampled over all peers' partitions in a
+ * few supersteps, see {@link ParallelSeeding}.</li>
+ * </ul>
+ * With {@link KMeansCluster#CONF_WARM_START} the means of an earlier run are
+ * taken instead, see {@link PreviousModel}.
+ */
+public class Seeding {
+
+	static final String FIRST = "first";
+	static final String PLUS_PLUS = "kmeans++";
+	static final String PARALLEL = "kmeans||";
+
+	static boolean isKnown(String init) {
+		return FIRST.equals(init) || PLUS_PLUS.equals(init) || PARALLEL.equals(init);
+	}
+
+	/**
+	 * Choose k initial means as configured by {@link KMeansCluster#CONF_INIT}.
+	 * All peers must call this together, k-means|| runs supersteps of its own.
+	 *
+	 * @param points My partition of the points
+	 * @param masterReader Source file on the master, null on other peers
+	 * @return k interleaved means on the master, null on other peers
+	 */
+	public static double[] choose(Configuration conf, BSPPeerProtocol bspPeer, String[] peers, int myIndex,
+			PointStore points, int k, PointReader masterReader) throws IOException, KeeperException, InterruptedException {
+
+		final String previous = conf.get(KMeansCluster.CONF_WARM_START);
+
+		if (previous != null) {
+			return masterReader == null ? null : PreviousModel.read(FileSystem.get(conf), new Path(previous),
+					masterReader.getDimensions(), masterReader.getPrecision()).initialMeans(k, masterReader);
+		}
+
+		final String init = conf.get(KMeansCluster.CONF_INIT, FIRST);
+		final Random random = new Random(conf.getLong(KMeansCluster.CONF_SEED, 1) + myIndex);
+
+		if (PARALLEL.equals(init)) {
+
+			DenseVector first = null;
+
+			if (masterReader != null) {
+				if (masterReader.getNumPoints() < k) {
+					throw new RuntimeException("Cannot make " + k + " clusters out of " + masterReader.getNumPoints() + " points");
+				}
+
+				final PointStore firstStore = new PointStore(masterReader.getDimensions(), 1, masterReader.getPrecision());
+				masterReader.read(random.nextInt(masterReader.getNumPoints()), 1, firstStore);
+				first = firstStore.get(0);
+			}
+
+			final ParallelSeeding seeding = new ParallelSeeding(points, k,
+					conf.getInt(KMeansCluster.CONF_INIT_ROUNDS, 5),
+					conf.getFloat(KMeansCluster.CONF_INIT_OVERSAMPLING, 2) * k, random);
+
+			return seeding.run(bspPeer, peers, myIndex, conf.get(KMeansCluster.CONF_MASTER_TASK), first);
+		}
+
+		return masterReader == null ? null : chooseOnMaster(init, masterReader, k, random);
+	}
+
+	/**
+	 * Choose k means from the source file on the master, for {@link #FIRST}
+	 * and {@link #PLUS_PLUS}.
+	 *
+	 * @return k interleaved means
+	 */
+	public static double[] chooseOnMaster(String init, PointReader reader, int k, Random random) throws IOException {
+
+		if (reader.getNumPoints() < k) {
+			throw new RuntimeException("Cannot make " + k + " clusters out of " + reader.getNumPoints() + " points");
+		}
+
+		if (FIRST.equals(init)) {
+			final PointStore means = new PointStore(reader.getDimensions(), k, reader.getPrecision());
+			reader.read(0, k, means);
+			return means.toArray();
+		} else if (PLUS_PLUS.equals(init)) {
+			final PointStore points = new PointStore(reader.getDimensions(), reader.getNumPoints(), reader.getPrecision());
+			reader.read(0, reader.getNumPoints(), points);
+			return plusPlus(points, null, k, random);
+		}
+
+		throw new IllegalArgumentException("Not a master side initialization: " + init);
+	}
+
+	/**
+	 * Choose k dense means from a sparse source file on the master, for
+	 * {@link #FIRST} and {@link #PLUS_PLUS}.
+	 *
+	 * @return k interleaved means
+	 */
+	public static double[] chooseOnMaster(String init, SparsePointReader reader, int k, Random random) throws IOException {
+
+		if (reader.getNumPoints() < k) {
+			throw new RuntimeException("Cannot make " + k + " clusters out of " + reader.getNumPoints() + " points");
+		}
+
+		final int dimensions = reader.getDimensions();
+
+		if (FIRST.equals(init)) {
+			final SparsePointStore first = new SparsePointStore(dimensions);
+			reader.read(0, k, first);
+
+			final double[] means = new double[k * dimensions];
+			for (int c = 0; c < k; c++) {
+				first.addTo(c, means, c * dimensions);
+			}
+			return means;
+		} else if (PLUS_PLUS.equals(init)) {
+			final SparsePointStore points = new SparsePointStore(dimensions);
+			reader.read(0, reader.getNumPoints(), points);
+			return plusPlus(points, k, random);
+		}
+
+		throw new IllegalArgumentException("Not a sparse initialization: " + init);
+	}
+
+	/**
+	 * k-means++: the first mean is drawn uniformly, every further mean with
+	 * probability proportional to its weight times its squared distance to
+	 * the closest mean chosen so far.
+	 *
+	 * @param weights Weight of every point, null for all 1
+	 * @return k interleaved means
+	 */
+	public static double[] plusPlus(PointStore points, double[] weights, int k, Random random) {
+
+		final int n = points.size();
+		final int dimensions = points.dimensions();
+		final double[] means = new double[k * dimensions];
+
+		//Weighted squared distance of every point to its closest mean so far
+		final double[] cost = new double[n];
+		Arrays.fill(cost, Double.MAX_VALUE);
+
+		int chosen = pick(weights, n, totalWeight(weights, n), random);
+
+		for (int c = 0; c < k; c++) {
+
+			points.copy(chosen, means, c * dimensions);
+
+			if (c == k - 1) {
+				break;
+			}
+
+			double total = 0;
+			for (int i = 0; i < n; i++) {
+				final double distance = points.squaredDistance(i, means, c) * (weights == null ? 1 : weights[i]);
+
+				if (distance < cost[i]) {
+					cost[i] = distance;
+				}
+				total += cost[i];
+			}
+
+			//All remaining points coincide with a mean, any of them will do
+			chosen = total > 0 ? pick(cost, n, total, random) : random.nextInt(n);
+		}
+
+		return means;
+	}
+
+	/**
+	 * Unweighted k-means++ over sparse points, see
+	 * {@link #plusPlus(PointStore, double[], int, Random)}.
+	 *
+	 * @return k interleaved dense means
+	 */
+	public static double[] plusPlus(SparsePointStore points, int k, Random random) {
+
+		final int n = points.size();
+		final int dimensions = points.dimensions();
+		final double[] means = new double[k * dimensions];
+
+		final double[] cost = new double[n];
+		Arrays.fill(cost, Double.MAX_VALUE);
+
+		int chosen = random.nextInt(n);
+
+		for (int c = 0; c < k; c++) {
+
+			points.addTo(chosen, means, c * dimensions);
+
+			if (c == k - 1) {
+				break;
+			}
+
+			final double meanNorm = points.squaredNorm(chosen);
+
+			double total = 0;
+			for (int i = 0; i < n; i++) {
+				final double distance = points.squaredDistance(i, means, c * dimensions, meanNorm);
+
+				if (distance < cost[i]) {
+					cost[i] = distance;
+				}
+				total += cost[i];
+			}
+
+			chosen = total > 0 ? pick(cost, n, total, random) : random.nextInt(n);
+		}
+
+		return means;
+	}
+
+	private static double totalWeight(double[] weights, int n) {
+		if (weights == null) {
+			return n;
+		}
+
+		double total = 0;
+		for (int i = 0; i < n; i++) {
+			total += weights[i];
+		}
+		return total;
+	}
+
+	/**
+	 * Draw an index with probability proportional to {@code weights}, or
+	 * uniformly if {@code weights} is null.
+	 */
+	private static int pick(double[] weights, int n, double total, Random random) {
+
+		if (weights == null) {
+			return random.nextInt(n);
+		}
+
+		double target = random.nextDouble() * total;
+
+		for (int i = 0; i < n; i++) {
+			target -= weights[i];
+			if (target < 0) {
+				return i;
+			}
+		}
+
+		//Rounding left target just above 0, take the last point with weight
+		for (int i = n - 1; i > 0; i--) {
+			if (weights[i] > 0) {
+				return i;
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,122 @@
+package ee.ut.cs.willmore;
+
+/**
+ * Brute force assignment of sparse points to dense means.
+ *
+ * The closest mean of x minimizes ||c||^2 - 2 x.c, as ||x||^2 is the same
+ * for all means. The squared norms of the means are computed once per
+ * {@link #load}, and the means are held transposed, k values per dimension,
+ * so the dot products of one point with all k means walk k consecutive
+ * values per non-zero. A point costs k times its non-zeros, independent of
+ * the dimension.
+ */
+public class SparseAssigner {
+
+	private static final int TRANSPOSE_BLOCK = 64;
+
+	private final SparsePointStore points;
+	private final int k;
+	private final int dimensions;
+
+	//The range [from, to) of points handled by this assigner
+	private final int from;
+	private final int to;
+
+	//Means transposed, value of mean c in dimension d at d * k + c
+	private final double[] transposed;
+	private final double[] meanNorms;
+
+	//||c||^2 - 2 x.c of the last point to every mean
+	private final double[] scores;
+
+	public SparseAssigner(SparsePointStore points, int k) {
+		this(points, k, 0, points.size());
+	}
+
+	public SparseAssigner(SparsePointStore points, int k, int from, int to) {
+		this.points = points;
+		this.k = k;
+		this.dimensions = points.dimensions();
+		this.from = from;
+		this.to = to;
+		this.transposed = new double[dimensions * k];
+		this.meanNorms = new double[k];
+		this.scores = new double[k];
+	}
+
+	/**
+	 * Take k interleaved means for the following {@link #nearest} calls.
+	 */
+	public void load(double[] means) {
+
+		//Transpose in blocks of dimensions, so that both the rows read and the
+		//rows written stay in cache
+		for (int block = 0; block < dimensions; block += TRANSPOSE_BLOCK) {
+			final int blockEnd = Math.min(block + TRANSPOSE_BLOCK, dimensions);
+
+			for (int c = 0; c < k; c++) {
+				final int offset = c * dimensions;
+				for (int d = block; d < blockEnd; d++) {
+					transposed[d * k + c] = means[offset + d];
+				}
+			}
+		}
+
+		for (int c = 0; c < k; c++) {
+			meanNorms[c] = SparsePointStore.squaredNorm(means, c * dimensions, dimensions);
+		}
+	}
+
+	/**
+	 * @return Index of the mean closest to point {@code i}, the lowest index
+	 *         on ties
+	 */
+	public int nearest(int i) {
+
+		System.arraycopy(meanNorms, 0, scores, 0, k);
+
+		final int[] indices = points.indices();
+		final double[] values = points.values();
+
+		for (int j = points.start(i); j < points.end(i); j++) {
+			final double twice = 2 * values[j];
+			final int row = indices[j] * k;
+
+			for (int c = 0; c < k; c++) {
+				scores[c] -= twice * transposed[row + c];
+			}
+		}
+
+		int minCluster = 0;
+		for (int c = 1; c < k; c++) {
+			if (scores[c] < scores[minCluster]) {
+				minCluster = c;
+			}
+		}
+		return minCluster;
+	}
+
+	/**
+	 * Assign every point to its closest mean, as {@link Assigner#assign}.
+	 */
+	public int assign(double[] means, int[] assignments, PartialSums partial) {
+
+		int changeCount = 0;
+
+		load(means);
+
+		for (int i = from; i < to; i++) {
+
+			final int minCluster = nearest(i);
+
+			if (assignments[i] != minCluster) {
+				assignments[i] = minCluster;
+				changeCount += 1;
+			}
+
+			partial.add(minCluster, points, i);
+		}
+
+		return changeCount;
+	}
+}
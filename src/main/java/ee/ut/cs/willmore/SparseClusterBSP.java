@@ -0,0 +1,193 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hama.bsp.BSP;
+import org.apache.hama.bsp.BSPPeerProtocol;
+import org.apache.zookeeper.KeeperException;
+
+/**
+ * Partition mode k-means over sparse points, read from a
+ * {@link SparsePointReader} source file. Supersteps are those of
+ * {@link PartitionedClusterBSP}: every peer assigns its fixed partition with a
+ * {@link SparseAssigner} and sends {@link PartialSums} to all peers. Means
+ * are dense, points stay sparse throughout.
+ */
+public class SparseClusterBSP extends BSP {
+
+	public static final Log LOG = LogFactory.getLog(SparseClusterBSP.class);
+	private Configuration conf;
+	private FileSystem fileSys;
+	private String masterTask;
+	private int k;
+	private int dimensions;
+
+	//My fixed partition of the points
+	SparsePointStore points;
+
+	//Cluster index of each of my points, -1 if not yet assigned
+	int[] assignments;
+
+	//Current mean of every cluster, interleaved
+	double[] means;
+
+	@Override
+	public void bsp(final BSPPeerProtocol bspPeer) throws IOException,
+			KeeperException, InterruptedException {
+
+		final String[] peers = KMeansCluster.sortedPeerNames(bspPeer);
+		final int myIndex = KMeansCluster.indexOf(peers, bspPeer.getPeerName());
+
+		final SparsePointReader reader = openSource();
+		reader.readSlice(myIndex, peers.length, points);
+
+		LOG.info("My partition has " + points.size() + " points, " + points.nonZeros() + " non-zeros");
+
+		if (bspPeer.getPeerName().equals(masterTask)) {
+			final Random random = new Random(conf.getLong(KMeansCluster.CONF_SEED, 1) + myIndex);
+			final double[] initMeans = Seeding.chooseOnMaster(conf.get(KMeansCluster.CONF_INIT, Seeding.FIRST), reader, k, random);
+
+			PartitionedClusterBSP.sendToAll(bspPeer, peers, PartitionedClusterBSP.meansMessage(myIndex, k, initMeans));
+			LOG.info("Initial means sent to peers");
+		}
+
+		reader.close();
+
+		bspPeer.sync();
+
+		means = PartitionedClusterBSP.receiveMeans(bspPeer, k, dimensions);
+
+		assignments = new int[points.size()];
+		Arrays.fill(assignments, -1);
+
+		iterate(bspPeer, peers, myIndex);
+
+		LOG.info("My WCSS is " + wcss());
+
+		writeFinalOutput(bspPeer);
+	}
+
+	/**
+	 * Run k-means iterations until no point changes cluster or a
+	 * {@link Convergence} rule is met.
+	 */
+	private void iterate(BSPPeerProtocol bspPeer, String[] peers, int myIndex) throws IOException,
+			KeeperException, InterruptedException {
+
+		final SparseAssigner assigner = new SparseAssigner(points, k);
+		final Convergence convergence = Convergence.of(conf);
+		final TreeExchange tree = TreeExchange.of(conf, peers, myIndex);
+
+		int iteration = 0;
+
+		while (true) {
+
+			final PartialSums partial = new PartialSums(myIndex, k, dimensions);
+			partial.addChanges(assigner.assign(means, assignments, partial));
+
+			if (convergence.needsWcss()) {
+				partial.addCost(wcss());
+			}
+
+			final PartialSums total = PartitionedClusterBSP.allReduce(bspPeer, peers, tree, partial);
+
+			iteration++;
+			LOG.info("Iteration " + iteration + " moved " + total.getChanges() + " points");
+
+			if (total.getChanges() == 0) {
+				break;
+			}
+
+			final double[] previous = convergence.hasRules() ? means.clone() : null;
+			total.updateMeans(means);
+
+			if (previous != null && convergence.isConverged(PartitionedClusterBSP.iterationOf(iteration, previous, means, dimensions,
+					total, convergence))) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Within cluster sum of squares of my partition.
+	 */
+	private double wcss() {
+
+		final double[] meanNorms = new double[k];
+		for (int c = 0; c < k; c++) {
+			meanNorms[c] = SparsePointStore.squaredNorm(means, c * dimensions, dimensions);
+		}
+
+		double sum = 0;
+		for (int i = 0; i < points.size(); i++) {
+			final int c = assignments[i];
+			sum += points.squaredDistance(i, means, c * dimensions, meanNorms[c]);
+		}
+		return sum;
+	}
+
+	private SparsePointReader openSource() throws IOException {
+		return SparsePointReader.open(fileSys, new Path(conf.get(KMeansCluster.CONF_FILE_SOURCE)), dimensions);
+	}
+
+	/**
+	 * Write one sparse file per cluster that has points in my partition: the
+	 * mean (its non-zeros) followed by the points, as in the dense modes.
+	 */
+	private void writeFinalOutput(final BSPPeerProtocol bspPeer) throws IOException {
+
+		final List<SparsePointStore> clusters = new ArrayList<SparsePointStore>(k);
+
+		for (int c = 0; c < k; c++) {
+			final SparsePointStore cluster = new SparsePointStore(dimensions);
+			cluster.addDense(means, c * dimensions);
+			clusters.add(cluster);
+		}
+
+		for (int i = 0; i < points.size(); i++) {
+			clusters.get(assignments[i]).add(points, i);
+		}
+
+		final String prefix = conf.get(KMeansCluster.CONF_FILE_OUT) + "/" + bspPeer.getPeerName().replace(":", "_");
+
+		for (int c = 0; c < k; c++) {
+
+			if (clusters.get(c).size() == 1) {
+				continue;
+			}
+
+			final SparsePointWriter writer = new SparsePointWriter(fileSys.create(new Path(prefix + "_" + c), true));
+			writer.write(clusters.get(c));
+			writer.close();
+		}
+
+		LOG.info("Wrote final output to: " + prefix + "_*");
+	}
+
+	public Configuration getConf() {
+		return conf;
+	}
+
+	public void setConf(Configuration conf) {
+		this.conf = conf;
+		this.masterTask = conf.get(KMeansCluster.CONF_MASTER_TASK);
+		this.k = conf.getInt(KMeansCluster.CONF_K, 0);
+		this.dimensions = conf.getInt(KMeansCluster.CONF_DIMENSIONS, KMeansCluster.DEFAULT_DIMENSIONS);
+		this.points = new SparsePointStore(dimensions);
+
+		try {
+			fileSys = FileSystem.get(conf);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
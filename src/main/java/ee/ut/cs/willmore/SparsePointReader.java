@@ -0,0 +1,134 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Reads sparse points as written by {@link SparsePointWriter}. The file holds
+ * the points in compressed sparse row form:
+ * <ol>
+ * <li>int point count n</li>
+ * <li>n + 1 longs, the offset of every point's first non-zero and the total
+ * number of non-zeros</li>
+ * <li>an int dimension index per non-zero</li>
+ * <li>a double value per non-zero</li>
+ * </ol>
+ * As with {@link PointReader} the dimension is part of the job configuration.
+ * The offsets let every peer seek straight to its own slice.
+ */
+public class SparsePointReader {
+
+	//Number of points decoded per read from the stream
+	private static final int BLOCK_POINTS = 4096;
+
+	private final FSDataInputStream in;
+	private final int dimensions;
+	private final int numPoints;
+	private final long nonZeros;
+
+	public SparsePointReader(FSDataInputStream inputStream, int dimensions) throws IOException {
+		this.in = inputStream;
+		this.dimensions = dimensions;
+		this.numPoints = in.readInt();
+
+		in.seek(offsetPosition(numPoints));
+		this.nonZeros = in.readLong();
+	}
+
+	public static SparsePointReader open(FileSystem fileSys, Path srcFilePath, int dimensions) throws IOException {
+
+		if (!fileSys.exists(srcFilePath)) {
+			throw new RuntimeException("Could not find source file:" + srcFilePath.getName());
+		}
+
+		return new SparsePointReader(fileSys.open(srcFilePath), dimensions);
+	}
+
+	public int getDimensions() {
+		return dimensions;
+	}
+
+	public int getNumPoints() {
+		return numPoints;
+	}
+
+	public long getNonZeros() {
+		return nonZeros;
+	}
+
+	/**
+	 * Read the {@code index}-th of {@code parts} contiguous slices of the file
+	 * into {@code points}, sliced as {@link PointReader#sliceStart}.
+	 */
+	public void readSlice(int index, int parts, SparsePointStore points) throws IOException {
+		final int first = PointReader.sliceStart(numPoints, index, parts);
+		read(first, PointReader.sliceStart(numPoints, index + 1, parts) - first, points);
+	}
+
+	/**
+	 * Read {@code count} points starting at point {@code first} into
+	 * {@code points}.
+	 */
+	public void read(int first, int count, SparsePointStore points) throws IOException {
+
+		if (points.dimensions() != dimensions) {
+			throw new IllegalArgumentException("Store has " + points.dimensions() + " dimensions, file " + dimensions);
+		}
+
+		if (first < 0 || count < 0 || (long) first + count > numPoints) {
+			throw new IOException("Points [" + first + "," + (first + count)
+					+ ") out of range, file has " + numPoints);
+		}
+
+		final long[] offsets = new long[Math.min(count, BLOCK_POINTS) + 1];
+
+		int done = 0;
+		while (done < count) {
+			final int block = Math.min(count - done, BLOCK_POINTS);
+
+			in.seek(offsetPosition(first + done));
+			for (int i = 0; i <= block; i++) {
+				offsets[i] = in.readLong();
+			}
+
+			final int blockNonZeros = (int) (offsets[block] - offsets[0]);
+			final int[] indices = new int[blockNonZeros];
+			final double[] values = new double[blockNonZeros];
+
+			in.seek(indexPosition(offsets[0]));
+			for (int j = 0; j < blockNonZeros; j++) {
+				indices[j] = in.readInt();
+			}
+
+			in.seek(valuePosition(offsets[0]));
+			for (int j = 0; j < blockNonZeros; j++) {
+				values[j] = in.readDouble();
+			}
+
+			for (int i = 0; i < block; i++) {
+				points.add(indices, values, (int) (offsets[i] - offsets[0]), (int) (offsets[i + 1] - offsets[i]));
+			}
+
+			done += block;
+		}
+	}
+
+	private static long offsetPosition(int point) {
+		return 4 + (long) point * 8;
+	}
+
+	private long indexPosition(long nonZero) {
+		return offsetPosition(numPoints + 1) + nonZero * 4;
+	}
+
+	private long valuePosition(long nonZero) {
+		return indexPosition(nonZeros) + nonZero * 8;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+}
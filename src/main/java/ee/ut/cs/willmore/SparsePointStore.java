@@ -0,0 +1,215 @@
+package ee.ut.cs.willmore;
+
+import java.util.Arrays;
+
+/**
+ * Growable store of sparse points in compressed sparse row form: the
+ * non-zero indices and values of all points in two flat arrays, and the
+ * offset of every point's first non-zero in {@code rowStart}. Memory and
+ * scans scale with the number of non-zeros, not with the dimension.
+ *
+ * The squared norm of every point is kept, so distances to dense means can
+ * be computed as ||x||^2 + ||c||^2 - 2 x.c, touching only x's non-zeros.
+ */
+public class SparsePointStore {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private final int dimensions;
+	private int size;
+
+	//Non-zeros of point i are [rowStart[i], rowStart[i + 1])
+	private int[] rowStart;
+	private int[] indices;
+	private double[] values;
+	private double[] squaredNorms;
+
+	public SparsePointStore(int dimensions) {
+		this(dimensions, DEFAULT_CAPACITY, DEFAULT_CAPACITY);
+	}
+
+	public SparsePointStore(int dimensions, int capacity, int nonZeroCapacity) {
+		if (dimensions < 1) {
+			throw new IllegalArgumentException("Dimensions must be positive: " + dimensions);
+		}
+		this.dimensions = dimensions;
+		this.rowStart = new int[Math.max(capacity, 1) + 1];
+		this.squaredNorms = new double[Math.max(capacity, 1)];
+		this.indices = new int[Math.max(nonZeroCapacity, 1)];
+		this.values = new double[Math.max(nonZeroCapacity, 1)];
+	}
+
+	public int dimensions() {
+		return dimensions;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return Total number of non-zeros of all points
+	 */
+	public int nonZeros() {
+		return rowStart[size];
+	}
+
+	/**
+	 * @return Offset of the first non-zero of point {@code i} in
+	 *         {@link #indices()} and {@link #values()}
+	 */
+	public int start(int i) {
+		return rowStart[i];
+	}
+
+	public int end(int i) {
+		return rowStart[i + 1];
+	}
+
+	/**
+	 * Backing array of the non-zero indices, valid until the next add.
+	 */
+	int[] indices() {
+		return indices;
+	}
+
+	/**
+	 * Backing array of the non-zero values, valid until the next add.
+	 */
+	double[] values() {
+		return values;
+	}
+
+	public double squaredNorm(int i) {
+		return squaredNorms[i];
+	}
+
+	/**
+	 * Add a point of {@code count} non-zeros starting at {@code offset} of
+	 * {@code pointIndices} and {@code pointValues}.
+	 */
+	public void add(int[] pointIndices, double[] pointValues, int offset, int count) {
+
+		ensureCapacity(size + 1, nonZeros() + count);
+
+		final int start = rowStart[size];
+		double norm = 0;
+
+		for (int j = 0; j < count; j++) {
+			final int index = pointIndices[offset + j];
+
+			if (index < 0 || index >= dimensions) {
+				throw new IllegalArgumentException("Index " + index + " out of " + dimensions + " dimensions");
+			}
+
+			final double value = pointValues[offset + j];
+			indices[start + j] = index;
+			values[start + j] = value;
+			norm += value * value;
+		}
+
+		squaredNorms[size] = norm;
+		rowStart[size + 1] = start + count;
+		size++;
+	}
+
+	public void add(SparsePointStore that, int i) {
+		if (that.dimensions != dimensions) {
+			throw new IllegalArgumentException("Point has " + that.dimensions + " dimensions, store " + dimensions);
+		}
+		add(that.indices, that.values, that.rowStart[i], that.rowStart[i + 1] - that.rowStart[i]);
+	}
+
+	/**
+	 * Add the non-zeros of the dense vector starting at {@code offset} of
+	 * {@code dense}.
+	 */
+	public void addDense(double[] dense, int offset) {
+
+		int count = 0;
+		for (int d = 0; d < dimensions; d++) {
+			if (dense[offset + d] != 0) {
+				count++;
+			}
+		}
+
+		final int[] pointIndices = new int[count];
+		final double[] pointValues = new double[count];
+
+		int j = 0;
+		for (int d = 0; d < dimensions; d++) {
+			if (dense[offset + d] != 0) {
+				pointIndices[j] = d;
+				pointValues[j] = dense[offset + d];
+				j++;
+			}
+		}
+
+		add(pointIndices, pointValues, 0, count);
+	}
+
+	/**
+	 * Dot product of point {@code i} with the dense vector starting at
+	 * {@code offset} of {@code dense}.
+	 */
+	public double dot(int i, double[] dense, int offset) {
+		double sum = 0;
+		for (int j = rowStart[i]; j < rowStart[i + 1]; j++) {
+			sum += values[j] * dense[offset + indices[j]];
+		}
+		return sum;
+	}
+
+	/**
+	 * Add point {@code i} to the dense vector starting at {@code offset} of
+	 * {@code dense}.
+	 */
+	public void addTo(int i, double[] dense, int offset) {
+		for (int j = rowStart[i]; j < rowStart[i + 1]; j++) {
+			dense[offset + indices[j]] += values[j];
+		}
+	}
+
+	/**
+	 * Squared distance of point {@code i} to the dense vector starting at
+	 * {@code offset} of {@code dense}, whose squared norm is
+	 * {@code denseSquaredNorm}. Rounding of the expansion can go slightly
+	 * below 0 for coinciding points, which is clamped.
+	 */
+	public double squaredDistance(int i, double[] dense, int offset, double denseSquaredNorm) {
+		return Math.max(0, squaredNorms[i] + denseSquaredNorm - 2 * dot(i, dense, offset));
+	}
+
+	/**
+	 * Squared norm of the dense vector starting at {@code offset} of
+	 * {@code dense}, for {@link #squaredDistance}.
+	 */
+	public static double squaredNorm(double[] dense, int offset, int dimensions) {
+		double norm = 0;
+		for (int d = offset; d < offset + dimensions; d++) {
+			norm += dense[d] * dense[d];
+		}
+		return norm;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	private void ensureCapacity(int points, int nonZeros) {
+		if (points > squaredNorms.length) {
+			final int capacity = Math.max(points, squaredNorms.length * 2);
+			rowStart = Arrays.copyOf(rowStart, capacity + 1);
+			squaredNorms = Arrays.copyOf(squaredNorms, capacity);
+		}
+		if (nonZeros > indices.length) {
+			final int capacity = Math.max(nonZeros, indices.length * 2);
+			indices = Arrays.copyOf(indices, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+
+/**
+ * Writes a {@link SparsePointStore} in the format read by
+ * {@link SparsePointReader}. The whole file is written from one store, since
+ * the point count and offsets come first.
+ */
+public class SparsePointWriter {
+
+	private final FSDataOutputStream out;
+
+	public SparsePointWriter(FSDataOutputStream outputStream) {
+		this.out = outputStream;
+	}
+
+	public void write(SparsePointStore points) throws IOException {
+
+		final int[] indices = points.indices();
+		final double[] values = points.values();
+		final int nonZeros = points.nonZeros();
+
+		out.writeInt(points.size());
+
+		for (int i = 0; i < points.size(); i++) {
+			out.writeLong(points.start(i));
+		}
+		out.writeLong(nonZeros);
+
+		for (int j = 0; j < nonZeros; j++) {
+			out.writeInt(indices[j]);
+		}
+		for (int j = 0; j < nonZeros; j++) {
+			out.writeDouble(values[j]);
+		}
+	}
+
+	public void close() throws IOException {
+		out.close();
+	}
+}
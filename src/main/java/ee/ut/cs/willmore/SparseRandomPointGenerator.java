@@ -0,0 +1,80 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Bag-of-words style sparse points. Every topic has its own vocabulary of
+ * random dimensions, every point belongs to one topic and draws most of its
+ * non-zeros from that vocabulary and the rest from all dimensions. Values are
+ * term counts in [1,{@code range}]. Noise points draw all their non-zeros
+ * from all dimensions. Sparse files always hold double values, the precision
+ * is ignored.
+ */
+public class SparseRandomPointGenerator implements PointGenerator {
+
+	//Share of a point's non-zeros drawn from its topic's vocabulary
+	private static final double TOPIC_SHARE = 0.8;
+
+	private final Random random = new Random();
+	private final int numTopics;
+	private final int nonZeros;
+
+	/**
+	 * @param nonZeros Non-zeros per point, fewer if draws collide
+	 */
+	public SparseRandomPointGenerator(int numTopics, int nonZeros) {
+		this.numTopics = numTopics;
+		this.nonZeros = nonZeros;
+	}
+
+	@Override
+	public void generateSourceFile(FileSystem fileSys, Path fileName, int numPoints, int range, int noise, int dimensions, Precision precision) throws IOException {
+
+		final int vocabularySize = Math.min(dimensions, nonZeros * 4);
+		final int[][] vocabularies = new int[numTopics][vocabularySize];
+
+		for (int[] vocabulary : vocabularies) {
+			for (int w = 0; w < vocabularySize; w++) {
+				vocabulary[w] = random.nextInt(dimensions);
+			}
+		}
+
+		final SparsePointStore points = new SparsePointStore(dimensions, numPoints + noise, (numPoints + noise) * nonZeros);
+		final int[] indices = new int[nonZeros];
+		final double[] values = new double[nonZeros];
+
+		for (int i = 0; i < numPoints + noise; i++) {
+
+			final int[] vocabulary = i < numPoints ? vocabularies[random.nextInt(numTopics)] : null;
+
+			for (int j = 0; j < nonZeros; j++) {
+				indices[j] = vocabulary != null && random.nextDouble() < TOPIC_SHARE
+						? vocabulary[random.nextInt(vocabularySize)] : random.nextInt(dimensions);
+			}
+
+			Arrays.sort(indices);
+
+			//Collapse repeated draws of a dimension into one non-zero
+			int count = 0;
+			for (int j = 0; j < nonZeros; j++) {
+				if (count > 0 && indices[count - 1] == indices[j]) {
+					continue;
+				}
+				indices[count] = indices[j];
+				values[count] = 1 + random.nextInt(Math.max(range, 1));
+				count++;
+			}
+
+			points.add(indices, values, 0, count);
+		}
+
+		final SparsePointWriter writer = new SparsePointWriter(fileSys.create(fileName, true));
+		writer.write(points);
+		writer.close();
+	}
+}
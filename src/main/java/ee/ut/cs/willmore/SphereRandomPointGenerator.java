@@ -19,10 +19,10 @@ public class SphereRandomPointGenerator implements PointGenerator {
 		
 		private final Random random = new Random();
 		
-		private Point3D center;
+		private DenseVector center;
 		private double radius;
 
-		Sphere(Point3D center, double radius) {
+		Sphere(DenseVector center, double radius) {
 			this.center = center;
 			this.radius = radius;
 		}
@@ -31,18 +31,26 @@ public class SphereRandomPointGenerator implements PointGenerator {
 		 * 
 		 * @return Random point within sphere
 		 */
-		Point3D randomPoint() {
+		DenseVector randomPoint() {
 			
-			while (true) {
-				double x = (center.x - radius) + random.nextDouble() * (2 * radius);
-				double y = (center.y - radius) + random.nextDouble() * (2 * radius);
-				double z = (center.z - radius) + random.nextDouble() * (2 * radius);
-				Point3D p = new Point3D(x,y,z);
-				if (p.distance(center) <= radius) {
-					return p;
-				}
+			//Uniform direction from a normal sample, scaled to a radius that is
+			//uniform over the ball's volume. Unlike rejection from the bounding
+			//cube this stays fast in many dimensions.
+			final double[] values = new double[center.dimensions()];
+			double norm = 0;
+			
+			for (int d = 0; d < values.length; d++) {
+				values[d] = random.nextGaussian();
+				norm += values[d] * values[d];
+			}
+			
+			final double scale = radius * Math.pow(random.nextDouble(), 1.0 / values.length) / Math.sqrt(norm);
+			
+			for (int d = 0; d < values.length; d++) {
+				values[d] = center.get(d) + values[d] * scale;
 			}
 			
+			return new DenseVector(values);
 		}
 	}
 	
@@ -59,7 +67,7 @@ public class SphereRandomPointGenerator implements PointGenerator {
 	/**
 	 * Create a randomly generated dataset of points saved on the Hadoop
 	 * file-system at the specified {@code fileName}. 
-	 * {@code numPoints} of 3D double-value points, with X,Y,Z each within [0,{@code range}).
+	 * {@code numPoints} points of {@code dimensions} coordinates in {@code precision}, each within [0,{@code range}).
 	 * 
 	 * @param fileSys
 	 * @param fileName
@@ -68,9 +76,10 @@ public class SphereRandomPointGenerator implements PointGenerator {
 	 * @throws IOException
 	 */
 	@Override
-	public void generateSourceFile(FileSystem fileSys, Path fileName, int numPoints, int range, int noise, int dimensions) throws IOException {
+	public void generateSourceFile(FileSystem fileSys, Path fileName, int numPoints, int range, int noise, int dimensions, Precision precision) throws IOException {
 		
 		final FSDataOutputStream out = fileSys.create(fileName, true);
+		final PointWriter writer = new PointWriter(out, precision);
 		
 		out.writeInt(numPoints + noise);
 		
@@ -78,25 +87,24 @@ public class SphereRandomPointGenerator implements PointGenerator {
 		
 		for (int i = 0; i < numSpheres; i++) {
 			
-			spheres.add(new Sphere(new Point3D(random.nextDouble()*range, 
-											   random.nextDouble()*range, 
-											   random.nextDouble()*range),
-									radius));
+			final double[] center = new double[dimensions];
+			for (int d = 0; d < dimensions; d++) {
+				center[d] = random.nextDouble()*range;
+			}
+			
+			spheres.add(new Sphere(new DenseVector(center), radius));
 		}
 		
 		for (int i = 0; i < numPoints; i++) {
 			
 			Sphere randomSphere = spheres.get(random.nextInt(numSpheres));
-			Point3D randomPoint = randomSphere.randomPoint();
-			out.writeDouble(randomPoint.x); // X
-			out.writeDouble(randomPoint.y); // Y 
-			out.writeDouble(dimensions == 2 ? 0 :randomPoint.z); // Z		
+			writer.write(randomSphere.randomPoint());
 		}
 		
 		for (int i = 0; i < noise; i++) {
-			out.writeDouble(random.nextDouble()*range); // X
-			out.writeDouble(random.nextDouble()*range); // Y 
-			out.writeDouble(dimensions == 2 ? 0 :random.nextDouble()*range); // Z
+			for (int d = 0; d < dimensions; d++) {
+				precision.write(out, random.nextDouble()*range);
+			}
 		}
 		
 		out.close();
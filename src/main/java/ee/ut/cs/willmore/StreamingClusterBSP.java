@@ -0,0 +1,348 @@
+package ee.ut.cs.willmore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hama.bsp.BSP;
+import org.apache.hama.bsp.BSPMessage;
+import org.apache.hama.bsp.BSPPeerProtocol;
+import org.apache.zookeeper.KeeperException;
+
+/**
+ * Online k-means over a stream of batch files arriving in a watched
+ * directory, {@link KMeansCluster#CONF_FILE_SOURCE}. Every round the master
+ * hands at most {@link KMeansCluster#CONF_ONLINE_ROUND_FILES} of the files in
+ * it to the peers, each peer assigns the points of its
+ * files to the current means and the merged {@link PartialSums} move the
+ * means, see {@link PartialSums#updateMeans(double[], double[], double)}.
+ * Points are dropped after their round, so memory depends on the batch file
+ * size and k only, not on the length of the stream or how far it is ahead of
+ * the job. Files beyond the limit wait for the next rounds, which follow
+ * without polling.
+ * <p>
+ * Batch files are in the {@link PointReader} format and are taken in name
+ * order. The master moves every file it hands out to {@link #PROCESSED_DIR},
+ * so the directory only lists files still to come and a file is taken
+ * whenever it appears, even if named lower than earlier ones. Neither the
+ * master's memory nor its listing grows with the stream. Writers should
+ * create files under a name starting with "_" or "." and rename them once
+ * complete, and not reuse names. The stream ends with a
+ * {@link #DONE_MARKER} file. The master publishes the means every
+ * {@link KMeansCluster#CONF_ONLINE_PUBLISH} rounds and when the stream ends,
+ * see {@link #publishMeans(int)}.
+ */
+public class StreamingClusterBSP extends BSP {
+
+	public static final Log LOG = LogFactory.getLog(StreamingClusterBSP.class);
+
+	/** Written to the watched directory after the last batch file. */
+	static final String DONE_MARKER = "_done";
+
+	/** Subdirectory of the watched directory batch files are moved to when handed out. */
+	static final String PROCESSED_DIR = "_processed";
+
+	/** Published means files are named this followed by their round. */
+	static final String PUBLISHED_MEANS = "means-";
+
+	private Configuration conf;
+	private FileSystem fileSys;
+	private String masterTask;
+	private int k;
+	private int dimensions;
+	private Precision precision;
+
+	//Weight of older points per round, 1 weighs all points ever seen equally
+	private double decay;
+	private int publishInterval;
+	private long pollMillis;
+
+	//Most batch files handed out per round, 0 for one per peer
+	private int roundFiles;
+
+	//Points of my batch files of the current round
+	PointStore batch;
+
+	//Current mean of every cluster, interleaved, null until the first batch
+	double[] means;
+
+	//Decayed number of points behind every mean
+	double[] weights;
+
+	//Means files published so far and not removed yet, oldest first, on the master
+	private final List<Path> published = new ArrayList<Path>();
+
+	@Override
+	public void bsp(final BSPPeerProtocol bspPeer) throws IOException,
+			KeeperException, InterruptedException {
+
+		final String[] peers = KMeansCluster.sortedPeerNames(bspPeer);
+		final int myIndex = KMeansCluster.indexOf(peers, bspPeer.getPeerName());
+		final boolean master = bspPeer.getPeerName().equals(masterTask);
+
+		final TreeExchange tree = TreeExchange.of(conf, peers, myIndex);
+		final DistanceKernel kernel = DistanceKernel.create(k, dimensions);
+		final double[] squared = new double[k];
+		final double[] point = new double[dimensions];
+
+		weights = new double[k];
+
+		int round = 0;
+		long streamed = 0;
+
+		while (true) {
+
+			if (master) {
+				handOutBatches(bspPeer, peers, myIndex);
+			}
+
+			bspPeer.sync();
+
+			final List<String> files = new ArrayList<String>();
+			final boolean last = receiveBatches(bspPeer, files);
+
+			batch.clear();
+			for (String file : files) {
+				final PointReader reader = PointReader.open(fileSys, new Path(file), dimensions, precision);
+				reader.readSlice(0, 1, batch);
+				reader.close();
+			}
+
+			if (means != null) {
+				kernel.load(means);
+
+				final PartialSums partial = new PartialSums(myIndex, k, dimensions);
+
+				for (int i = 0; i < batch.size(); i++) {
+					batch.copy(i, point, 0);
+					partial.add(kernel.nearest(point, 0, squared), point, 0);
+				}
+
+				final PartialSums total = PartitionedClusterBSP.allReduce(bspPeer, peers, tree, partial);
+
+				//Rounds without points leave the weights alone, waiting is no reason to forget
+				if (total.getPoints() > 0) {
+					total.updateMeans(means, weights, decay);
+					streamed += total.getPoints();
+					round++;
+
+					LOG.info("Round " + round + " clustered " + total.getPoints() + " points, " + streamed + " so far");
+
+					if (master && round % publishInterval == 0) {
+						publishMeans(round);
+					}
+				}
+			}
+
+			if (last) {
+				break;
+			}
+		}
+
+		if (master && means != null && (published.isEmpty() || round % publishInterval != 0)) {
+			publishMeans(round);
+		}
+
+		LOG.info("Stream ended after " + round + " rounds and " + streamed + " points");
+	}
+
+	/**
+	 * Wait for new batch files and send every peer its share of the first
+	 * {@link #roundFiles}, round robin in name order. The first batch file also
+	 * provides the initial means. The files handed out are moved to
+	 * {@link #PROCESSED_DIR} first. The stream ends once the marker exists and
+	 * no batch file is left.
+	 */
+	private void handOutBatches(BSPPeerProtocol bspPeer, String[] peers, int myIndex) throws IOException,
+			InterruptedException {
+
+		final Path source = new Path(conf.get(KMeansCluster.CONF_FILE_SOURCE));
+		final Path processed = new Path(source, PROCESSED_DIR);
+
+		List<String> names;
+		boolean done;
+
+		while (true) {
+			//Check the marker first, all batches are in place once it is
+			done = fileSys.exists(new Path(source, DONE_MARKER));
+			names = newBatches(fileSys.listStatus(source));
+
+			if (done || !names.isEmpty()) {
+				break;
+			}
+
+			Thread.sleep(pollMillis);
+		}
+
+		final int limit = roundFiles > 0 ? roundFiles : peers.length;
+
+		if (names.size() > limit) {
+			LOG.info((names.size() - limit) + " batch files wait for later rounds");
+			names = names.subList(0, limit);
+			done = false;
+		}
+
+		if (!names.isEmpty() && !fileSys.exists(processed)) {
+			fileSys.mkdirs(processed);
+		}
+
+		for (String name : names) {
+			if (!fileSys.rename(new Path(source, name), new Path(processed, name))) {
+				throw new IOException("Could not move batch file " + name + " to " + processed
+						+ ", names must not be reused");
+			}
+		}
+
+		if (means == null && !names.isEmpty()) {
+			final PointReader reader = PointReader.open(fileSys, new Path(processed, names.get(0)), dimensions, precision);
+			final Random random = new Random(conf.getLong(KMeansCluster.CONF_SEED, 1));
+			final double[] initMeans = Seeding.chooseOnMaster(conf.get(KMeansCluster.CONF_INIT, Seeding.FIRST), reader, k, random);
+			reader.close();
+
+			PartitionedClusterBSP.sendToAll(bspPeer, peers, PartitionedClusterBSP.meansMessage(myIndex, k, initMeans));
+			LOG.info("Initial means sent to peers");
+		}
+
+		LOG.info("Handing out " + names.size() + " batch files" + (done ? ", end of stream" : ""));
+
+		for (int p = 0; p < peers.length; p++) {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream(bytes);
+			out.writeBoolean(done);
+
+			int count = 0;
+			for (int i = p; i < names.size(); i += peers.length) {
+				out.writeUTF(new Path(processed, names.get(i)).toString());
+				count++;
+			}
+			out.close();
+
+			bspPeer.send(peers[p], MessageHeader.create(MessageHeader.FILES, myIndex, count, bytes.toByteArray()));
+		}
+	}
+
+	/**
+	 * Take the initial means, if sent, and my batch files of this round.
+	 *
+	 * @return Whether the stream ended with this round
+	 */
+	private boolean receiveBatches(BSPPeerProtocol bspPeer, List<String> files) throws IOException {
+
+		boolean last = false;
+
+		BSPMessage msg;
+		while ((msg = bspPeer.getCurrentMessage()) != null) {
+
+			if (MessageHeader.type(msg) == MessageHeader.MEANS) {
+				final PointStore initMeans = new PointStore(dimensions, MessageHeader.count(msg));
+				initMeans.append(ByteBuffer.wrap(msg.getData()));
+				means = initMeans.toArray();
+				continue;
+			}
+
+			MessageHeader.check(msg, MessageHeader.FILES);
+
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(msg.getData()));
+			last = in.readBoolean();
+			for (int i = 0; i < MessageHeader.count(msg); i++) {
+				files.add(in.readUTF());
+			}
+		}
+
+		return last;
+	}
+
+	/**
+	 * @return Names of the batch files in {@code listing}, in name order.
+	 *         Directories and names starting with "_" or "." are not batches.
+	 */
+	static List<String> newBatches(FileStatus[] listing) {
+
+		if (listing == null) {
+			return Collections.emptyList();
+		}
+
+		final List<String> names = new ArrayList<String>();
+
+		for (FileStatus status : listing) {
+			final String name = status.getPath().getName();
+
+			if (!status.isDir() && !name.startsWith("_") && !name.startsWith(".")) {
+				names.add(name);
+			}
+		}
+
+		Collections.sort(names);
+		return names;
+	}
+
+	/**
+	 * Publish the means of {@code round} as a new file in the output
+	 * directory, {@link #PUBLISHED_MEANS} followed by the round, so the
+	 * latest means are those of the highest name. The file is written under
+	 * a hidden name first and renamed once complete, and no file is replaced,
+	 * so readers never see a partial file nor a moment without one. Only the
+	 * previous file is kept next to the new one: a reader that lists the
+	 * directory and opens a file more than one publication later finds it
+	 * gone and has to list again.
+	 */
+	private void publishMeans(int round) throws IOException {
+
+		final String name = PUBLISHED_MEANS + String.format("%010d", round);
+		final Path path = new Path(conf.get(KMeansCluster.CONF_FILE_OUT), name);
+		final Path temporary = new Path(conf.get(KMeansCluster.CONF_FILE_OUT), "_" + name);
+
+		final PointWriter writer = new PointWriter(fileSys.create(temporary, true), precision);
+		for (int c = 0; c < k; c++) {
+			writer.write(DenseVector.copyOf(means, c * dimensions, dimensions));
+		}
+		writer.close();
+
+		if (!fileSys.rename(temporary, path)) {
+			throw new IOException("Could not publish means to: " + path);
+		}
+		published.add(path);
+
+		if (published.size() > 2) {
+			fileSys.delete(published.remove(0), false);
+		}
+
+		LOG.info("Published means to: " + path);
+	}
+
+	public Configuration getConf() {
+		return conf;
+	}
+
+	public void setConf(Configuration conf) {
+		this.conf = conf;
+		this.masterTask = conf.get(KMeansCluster.CONF_MASTER_TASK);
+		this.k = conf.getInt(KMeansCluster.CONF_K, 0);
+		this.dimensions = conf.getInt(KMeansCluster.CONF_DIMENSIONS, KMeansCluster.DEFAULT_DIMENSIONS);
+		this.precision = Precision.of(conf);
+		this.batch = new PointStore(dimensions, precision);
+		this.decay = Double.parseDouble(conf.get(KMeansCluster.CONF_ONLINE_DECAY, "1"));
+		this.publishInterval = Math.max(1, conf.getInt(KMeansCluster.CONF_ONLINE_PUBLISH, 1));
+		this.pollMillis = conf.getLong(KMeansCluster.CONF_ONLINE_POLL, KMeansCluster.DEFAULT_ONLINE_POLL_MILLIS);
+		this.roundFiles = conf.getInt(KMeansCluster.CONF_ONLINE_ROUND_FILES, 0);
+
+		try {
+			fileSys = FileSystem.get(conf);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
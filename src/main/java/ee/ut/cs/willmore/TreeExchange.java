@@ -0,0 +1,257 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hama.bsp.BSPMessage;
+import org.apache.hama.bsp.BSPPeerProtocol;
+import org.apache.zookeeper.KeeperException;
+
+/**
+ * Exchanges over a tree of the peers instead of all-to-all. Peers form a
+ * complete tree of the configured fan-out over their sorted names, rooted at
+ * peer 0. Values travel up to the root level by level, being combined on the
+ * way, and the result travels back down the same way.
+ *
+ * Every peer sends one message up and the root's result is forwarded once
+ * per child, so an exchange takes 2 (P - 1) messages instead of P^2, at the
+ * price of 2 log_fanout(P) supersteps instead of one. All peers sync the same
+ * number of times, as BSP requires.
+ */
+public class TreeExchange {
+
+	private final String[] peers;
+	private final int myIndex;
+	private final int fanout;
+
+	//Depth of me and of the deepest peer, the root is at depth 0
+	private final int myDepth;
+	private final int treeDepth;
+
+	/**
+	 * @return The tree of {@link KMeansCluster#CONF_TREE_FANOUT}, null for
+	 *         all-to-all exchanges
+	 */
+	static TreeExchange of(Configuration conf, String[] peers, int myIndex) {
+		final int fanout = conf.getInt(KMeansCluster.CONF_TREE_FANOUT, 0);
+		return fanout > 0 ? new TreeExchange(peers, myIndex, fanout) : null;
+	}
+
+	public TreeExchange(String[] peers, int myIndex, int fanout) {
+		if (fanout < 2) {
+			throw new IllegalArgumentException("Fan-out must be at least 2: " + fanout);
+		}
+		this.peers = peers;
+		this.myIndex = myIndex;
+		this.fanout = fanout;
+		this.myDepth = depth(myIndex);
+		this.treeDepth = depth(peers.length - 1);
+	}
+
+	int parent(int index) {
+		return (index - 1) / fanout;
+	}
+
+	int firstChild(int index) {
+		return index * fanout + 1;
+	}
+
+	int depth(int index) {
+		int depth = 0;
+		while (index > 0) {
+			index = parent(index);
+			depth++;
+		}
+		return depth;
+	}
+
+	/**
+	 * @return Number of supersteps one exchange takes
+	 */
+	public int supersteps() {
+		return 2 * treeDepth;
+	}
+
+	/**
+	 * Sum {@code mine} over all peers. Every peer adds its own sums first and
+	 * then those of its children in index order, so the result is the same
+	 * on every run, and all peers receive the root's copy of it.
+	 */
+	public PartialSums allReduce(BSPPeerProtocol bspPeer, PartialSums mine) throws IOException,
+			KeeperException, InterruptedException {
+
+		final BSPMessage[] children = new BSPMessage[fanout];
+		BSPMessage sums = null;
+
+		for (int level = treeDepth; level >= 1; level--) {
+
+			if (myDepth == level) {
+				bspPeer.send(peers[parent(myIndex)], sums != null ? sums : mine.toMessage());
+			}
+
+			bspPeer.sync();
+
+			BSPMessage msg;
+			while ((msg = bspPeer.getCurrentMessage()) != null) {
+				MessageHeader.check(msg, MessageHeader.SUMS);
+				children[MessageHeader.index(msg) - firstChild(myIndex)] = msg;
+			}
+
+			if (myDepth == level - 1) {
+				sums = merge(mine, children);
+			}
+		}
+
+		if (myIndex == 0) {
+			sums = treeDepth == 0 ? mine.toMessage() : sums;
+		}
+
+		sums = broadcast(bspPeer, sums, null);
+
+		return PartialSums.fromMessage(sums);
+	}
+
+	/**
+	 * Hand the messages every peer contributes to {@code dispatcher} on all
+	 * peers, the same messages in the same order everywhere. Other messages
+	 * arriving meanwhile, like points sent before the exchange, go to
+	 * {@code dispatcher} as they arrive.
+	 */
+	public void allGather(BSPPeerProtocol bspPeer, List<BSPMessage> mine, MessageDispatcher dispatcher)
+			throws IOException, KeeperException, InterruptedException {
+
+		final BSPMessage[] children = new BSPMessage[fanout];
+		final List<BSPMessage> gathered = new ArrayList<BSPMessage>(mine);
+
+		for (int level = treeDepth; level >= 1; level--) {
+
+			if (myDepth == level) {
+				bspPeer.send(peers[parent(myIndex)], bundle(gathered));
+			}
+
+			bspPeer.sync();
+
+			BSPMessage msg;
+			while ((msg = bspPeer.getCurrentMessage()) != null) {
+				if (MessageHeader.type(msg) == MessageHeader.BUNDLE) {
+					children[MessageHeader.index(msg) - firstChild(myIndex)] = msg;
+				} else {
+					dispatcher.handle(msg);
+				}
+			}
+
+			for (int c = 0; c < fanout; c++) {
+				if (children[c] != null) {
+					gathered.addAll(unbundle(children[c]));
+					children[c] = null;
+				}
+			}
+		}
+
+		final BSPMessage all = broadcast(bspPeer, myIndex == 0 ? bundle(gathered) : null, dispatcher);
+
+		for (BSPMessage msg : unbundle(all)) {
+			dispatcher.handle(msg);
+		}
+	}
+
+	/**
+	 * Send the root's {@code msg} down the tree, level by level.
+	 *
+	 * @param others Receives any other message, null if none may arrive
+	 * @return The root's message, on every peer
+	 */
+	private BSPMessage broadcast(BSPPeerProtocol bspPeer, BSPMessage msg, MessageDispatcher others) throws IOException,
+			KeeperException, InterruptedException {
+
+		for (int level = 0; level < treeDepth; level++) {
+
+			if (myDepth == level) {
+				final int first = firstChild(myIndex);
+				for (int child = first; child < Math.min(first + fanout, peers.length); child++) {
+					bspPeer.send(peers[child], relay(msg));
+				}
+			}
+
+			bspPeer.sync();
+
+			BSPMessage received;
+			while ((received = bspPeer.getCurrentMessage()) != null) {
+				if (myDepth == level + 1 && (others == null || MessageHeader.type(received) == MessageHeader.BUNDLE)) {
+					msg = received;
+				} else if (others != null) {
+					others.handle(received);
+				} else {
+					throw new RuntimeException("Unexpected message type " + MessageHeader.describe(received));
+				}
+			}
+		}
+
+		return msg;
+	}
+
+	/**
+	 * Merge my sums with those of my children, in index order.
+	 */
+	private BSPMessage merge(PartialSums mine, BSPMessage[] children) {
+
+		final PartialSums merged = new PartialSums(myIndex, mine.getK(), mine.getDimensions());
+		merged.merge(mine);
+
+		for (int c = 0; c < fanout; c++) {
+			if (children[c] != null) {
+				merged.merge(children[c]);
+				children[c] = null;
+			}
+		}
+
+		return merged.toMessage();
+	}
+
+	/**
+	 * The same content, sent on as coming from me.
+	 */
+	private BSPMessage relay(BSPMessage msg) {
+		return MessageHeader.create(MessageHeader.type(msg), myIndex, MessageHeader.count(msg), msg.getData());
+	}
+
+	/**
+	 * Pack {@code messages} with their headers into one message.
+	 */
+	private BSPMessage bundle(List<BSPMessage> messages) {
+
+		int size = 0;
+		for (BSPMessage msg : messages) {
+			size += MessageHeader.BYTES + 4 + msg.getData().length;
+		}
+
+		final ByteBuffer buffer = ByteBuffer.allocate(size);
+
+		for (BSPMessage msg : messages) {
+			buffer.put(msg.getTag());
+			buffer.putInt(msg.getData().length);
+			buffer.put(msg.getData());
+		}
+
+		return MessageHeader.create(MessageHeader.BUNDLE, myIndex, messages.size(), buffer.array());
+	}
+
+	private static List<BSPMessage> unbundle(BSPMessage bundle) {
+
+		final ByteBuffer buffer = ByteBuffer.wrap(bundle.getData());
+		final List<BSPMessage> messages = new ArrayList<BSPMessage>(MessageHeader.count(bundle));
+
+		for (int i = 0; i < MessageHeader.count(bundle); i++) {
+			final byte[] tag = new byte[MessageHeader.BYTES];
+			buffer.get(tag);
+			final byte[] data = new byte[buffer.getInt()];
+			buffer.get(data);
+			messages.add(new BSPMessage(tag, data));
+		}
+
+		return messages;
+	}
+}
@@ -5,7 +5,7 @@ import java.util.List;
 
 import org.apache.hama.bsp.BSPMessage;
 
-import ee.ut.cs.willmore.Point3D;
+import ee.ut.cs.willmore.DenseVector;
 import ee.ut.cs.willmore.PointMessage;
 
 
@@ -17,10 +17,10 @@ public class SerilizeTest {
 		ByteBuffer buffer = ByteBuffer.allocate(pm.getData().size() * 3 * 16);
 	    
 		
-		for (Point3D p : pm.getData()) {
-			buffer.putDouble(p.x);
-			buffer.putDouble(p.y);
-			buffer.putDouble(p.z);
+		for (DenseVector p : pm.getData()) {
+			buffer.putDouble(p.get(0));
+			buffer.putDouble(p.get(1));
+			buffer.putDouble(p.get(2));
 		}
 	   
 		return new BSPMessage(pm.getTag().getBytes(), buffer.array());
@@ -31,10 +31,10 @@ public class SerilizeTest {
 		
 		ByteBuffer buffer = ByteBuffer.wrap(bm.getData());
 		
-		List<Point3D> points = new ArrayList<Point3D>();
+		List<DenseVector> points = new ArrayList<DenseVector>();
 		
 		while (buffer.hasRemaining()) {	
-			points.add(new Point3D(buffer.getDouble(), buffer.getDouble(), buffer.getDouble()));
+			points.add(new DenseVector(buffer.getDouble(), buffer.getDouble(), buffer.getDouble()));
 		}
 	
 		return new PointMessage(new String(bm.getTag()), points);
@@ -42,8 +42,8 @@ public class SerilizeTest {
 	
 	public static void main(String args[]) throws IOException{
 		
-		Point3D point = new Point3D(-23.2, 12.2, 67.2);
-		List<Point3D> points = new ArrayList<Point3D>();
+		DenseVector point = new DenseVector(-23.2, 12.2, 67.2);
+		List<DenseVector> points = new ArrayList<DenseVector>();
 		points.add(point);
 		points.add(point);
 		PointMessage pm = new PointMessage("Test", points);
@@ -0,0 +1,25 @@
+package ee.ut.cs.willmore;
+
+/**
+ * The tests are main() programs that check with assert, so each first makes
+ * sure assertions are on; otherwise a test would pass without checking
+ * anything.
+ */
+final class Assertions {
+
+	private Assertions() {
+	}
+
+	/**
+	 * Fail unless the JVM runs with -ea.
+	 */
+	static void requireEnabled() {
+
+		boolean enabled = false;
+		assert enabled = true;
+
+		if (!enabled) {
+			throw new IllegalStateException("Assertions are disabled, run the tests with -ea");
+		}
+	}
+}
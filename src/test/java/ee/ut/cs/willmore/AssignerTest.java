@@ -0,0 +1,107 @@
+package ee.ut.cs.willmore;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Runs a local k-means loop driven by {@link LloydAssigner} and checks that
+ * at every iteration the accelerated {@link Assigner}s, fed the same means,
+ * produce exactly the same assignments. Repeated for several dimensions and
+ * for points stored as floats.
+ */
+public class AssignerTest {
+
+	private static final String[] ALGORITHMS = {
+		Assigner.HAMERLY, Assigner.ELKAN, Assigner.KDTREE
+	};
+
+	public static void main(String[] args) {
+
+		Assertions.requireEnabled();
+
+		for (int dimensions : new int[] {2, 3, 16}) {
+			run(dimensions, Precision.DOUBLE);
+		}
+		run(3, Precision.FLOAT);
+
+		//50M points with k=64 wraps around in int arithmetic
+		assert ElkanAssigner.lowerLength(1000, 64) == 64000 : "elkan bounds size";
+		boolean thrown = false;
+		try {
+			ElkanAssigner.lowerLength(50000000, 64);
+		} catch (IllegalArgumentException e) {
+			thrown = true;
+		}
+		assert thrown : "elkan bounds beyond an array rejected";
+
+		System.out.println("Assigners OK");
+	}
+
+	private static void run(int dimensions, Precision precision) {
+
+		final Random random = new Random(42);
+		final int numPoints = 5000;
+		final int k = 25;
+
+		final PointStore points = new PointStore(dimensions, numPoints, precision);
+		final double[] point = new double[dimensions];
+		for (int i = 0; i < numPoints; i++) {
+			for (int d = 0; d < dimensions; d++) {
+				point[d] = d % 3 == 2 ? random.nextDouble() * 100 : random.nextGaussian() * 50;
+			}
+			points.add(point, 0);
+		}
+
+		final Assigner lloyd = Assigner.create(Assigner.LLOYD, points, k);
+		final int[] expected = new int[numPoints];
+		Arrays.fill(expected, -1);
+
+		final Assigner[] assigners = new Assigner[ALGORITHMS.length];
+		final int[][] assignments = new int[ALGORITHMS.length][numPoints];
+		final long[] distances = new long[ALGORITHMS.length];
+
+		for (int a = 0; a < ALGORITHMS.length; a++) {
+			assigners[a] = Assigner.create(ALGORITHMS[a], points, k);
+			Arrays.fill(assignments[a], -1);
+		}
+
+		final double[] means = Arrays.copyOf(points.toArray(), k * dimensions);
+
+		long lloydDistances = 0;
+		int iterations = 0;
+
+		while (true) {
+			final PartialSums partial = new PartialSums(0, k, dimensions);
+			final int changes = lloyd.assign(means, expected, partial);
+			lloydDistances += lloyd.getDistanceCount();
+			iterations++;
+
+			for (int a = 0; a < ALGORITHMS.length; a++) {
+				final PartialSums other = new PartialSums(0, k, dimensions);
+
+				final int otherChanges = assigners[a].assign(means, assignments[a], other);
+
+				assert otherChanges == changes : ALGORITHMS[a] + " change count differs in iteration " + iterations;
+				assert Arrays.equals(expected, assignments[a]) : ALGORITHMS[a] + " assignments differ in iteration " + iterations;
+				for (int c = 0; c < k; c++) {
+					assert other.getCount(c) == partial.getCount(c) : ALGORITHMS[a] + " cluster sizes differ in iteration "
+							+ iterations;
+				}
+
+				distances[a] += assigners[a].getDistanceCount();
+			}
+
+			if (changes == 0) {
+				break;
+			}
+
+			partial.updateMeans(means);
+		}
+
+		System.out.println(dimensions + " dimensions, " + precision);
+		System.out.println(Assigner.LLOYD + ": " + iterations + " iterations, " + lloydDistances + " distances");
+		for (int a = 0; a < ALGORITHMS.length; a++) {
+			System.out.println(ALGORITHMS[a] + ": " + distances[a] + " distances");
+		}
+	}
+}
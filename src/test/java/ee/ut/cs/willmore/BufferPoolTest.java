@@ -0,0 +1,40 @@
+package ee.ut.cs.willmore;
+
+public class BufferPoolTest {
+
+	public static void main(String[] args) {
+
+		Assertions.requireEnabled();
+
+		final BufferPool pool = new BufferPool(48);
+
+		final byte[] first = pool.take(48);
+		final byte[] second = pool.take(48);
+		final byte[] tail = pool.take(24);
+
+		assert first != second : "distinct buffers within a superstep";
+		assert tail.length == 24 : "exact tail length";
+		assert pool.takenBytes() == 120 && pool.allocatedBytes() == 120 : "first superstep allocates";
+
+		pool.release();
+		assert pool.takenBytes() == 0 && pool.pooledBytes() == 96 : "released to the pool";
+
+		//Receivers read the messages of the last superstep after its sync
+		final byte[] held = pool.take(48);
+		assert held != first && held != second : "buffers of the last superstep held";
+
+		pool.release();
+		final byte[] reused = pool.take(48);
+		assert reused == first || reused == second : "chunk buffer reused a superstep later";
+		pool.take(48);
+		pool.take(48);
+		assert pool.allocatedBytes() == 48 : "only the third chunk allocated";
+		assert pool.takenBytes() == 144 && pool.peakBytes() == 144 : "peak of the third superstep";
+
+		pool.release();
+		pool.take(8);
+		assert pool.peakBytes() == 144 && pool.pooledBytes() == 192 : "peak kept over supersteps";
+
+		System.out.println("BufferPool OK");
+	}
+}
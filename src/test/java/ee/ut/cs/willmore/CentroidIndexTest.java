@@ -0,0 +1,109 @@
+package ee.ut.cs.willmore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CentroidIndexTest {
+
+	private static int bruteForce(double[] means, int dimensions, double[] coords, int offset) {
+		int nearest = -1;
+		double min = Double.MAX_VALUE;
+
+		for (int c = 0; c < means.length / dimensions; c++) {
+			double squared = 0;
+			for (int d = 0; d < dimensions; d++) {
+				final double delta = coords[offset + d] - means[c * dimensions + d];
+				squared += delta * delta;
+			}
+			if (squared < min) {
+				min = squared;
+				nearest = c;
+			}
+		}
+
+		return nearest;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		Assertions.requireEnabled();
+
+		final Random random = new Random(0);
+
+		for (final int dimensions : new int[] {2, 3, 5, 16}) {
+			final double[] means = new double[20 * dimensions];
+			for (int i = 0; i < means.length; i++) {
+				means[i] = random.nextDouble() * 100;
+			}
+
+			final CentroidIndex index = new CentroidIndex(means, dimensions);
+			assert index.size() == 20 && index.get(3, dimensions - 1) == means[4 * dimensions - 1] : "means indexed";
+
+			final int count = 1000;
+			final double[] coords = new double[count * dimensions];
+			for (int i = 0; i < coords.length; i++) {
+				coords[i] = random.nextDouble() * 100;
+			}
+
+			final int[] expected = new int[count];
+			for (int i = 0; i < count; i++) {
+				expected[i] = bruteForce(means, dimensions, coords, i * dimensions);
+			}
+
+			//Many threads on one index agree with a brute force search
+			final ExecutorService threads = Executors.newFixedThreadPool(8);
+			final List<Callable<int[]>> queries = new ArrayList<Callable<int[]>>();
+
+			for (int t = 0; t < 8; t++) {
+				final boolean batched = t % 2 == 0;
+				queries.add(new Callable<int[]>() {
+					@Override
+					public int[] call() {
+						final int[] labels = new int[count];
+						for (int round = 0; round < 50; round++) {
+							if (batched) {
+								index.nearest(coords, 0, count, labels);
+							} else {
+								for (int i = 0; i < count; i++) {
+									labels[i] = index.nearest(coords, i * dimensions);
+								}
+							}
+						}
+						return labels;
+					}
+				});
+			}
+
+			for (Future<int[]> result : threads.invokeAll(queries)) {
+				final int[] labels = result.get();
+				for (int i = 0; i < count; i++) {
+					assert labels[i] == expected[i] : "nearest mean of point " + i + " in " + dimensions + " dimensions";
+				}
+			}
+			threads.shutdown();
+
+			//The index keeps its own copy
+			means[0] = Double.NaN;
+			assert !Double.isNaN(index.get(0, 0)) : "means copied";
+		}
+
+		final CentroidIndex ties = new CentroidIndex(new double[] {1, 1, -1, -1}, 2);
+		assert ties.nearest(new double[] {0, 0}) == 0 : "lowest index on ties";
+		assert ties.squaredDistance(new double[] {0, 0}, 0, 1) == 2 : "squared distance";
+
+		boolean thrown = false;
+		try {
+			ties.nearest(new double[] {0, 0, 0});
+		} catch (IllegalArgumentException e) {
+			thrown = true;
+		}
+		assert thrown : "point of another dimension rejected";
+
+		System.out.println("CentroidIndex OK");
+	}
+}
@@ -0,0 +1,69 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+public class CheckpointsTest {
+
+	public static void main(String[] args) throws Exception {
+
+		Assertions.requireEnabled();
+
+		final FileSystem fileSys = FileSystem.get(new Configuration());
+		final Path dir = new Path("/tmp/kmeans_checkpoints_test_" + System.currentTimeMillis());
+
+		final Checkpoints first = new Checkpoints(fileSys, dir, 2, 0, 3, true);
+		final Checkpoints second = new Checkpoints(fileSys, dir, 2, 1, 3, false);
+
+		assert !first.isDue(0) && first.isDue(3) && !first.isDue(4) && first.isDue(6) : "due every 3 iterations";
+		assert first.latest() == -1 : "no checkpoint without a directory";
+
+		first.write(3, new byte[] {1, 2, 3});
+		second.write(3, new byte[] {4});
+		first.write(6, new byte[] {5, 6});
+
+		//Writing waits for the previous write, so iteration 6 is done once 9 is under way
+		first.write(9, new byte[] {7});
+		assert first.latest() == 3 : "iteration 6 is missing a peer";
+		assert Arrays.equals(first.read(3), new byte[] {1, 2, 3}) && Arrays.equals(second.read(3), new byte[] {4}) :
+				"read back what was written";
+
+		//A peer keeps its last three checkpoints
+		first.write(12, new byte[] {8});
+		first.write(15, new byte[0]);
+		assert !fileSys.exists(new Path(dir, "iteration-3-0")) : "older checkpoints deleted";
+		assert first.latest() == -1 : "no iteration left that both peers wrote";
+
+		second.write(12, new byte[] {9});
+		assert first.latest() == 12 : "latest complete iteration";
+
+		first.finish();
+		second.finish();
+		first.close();
+		second.close();
+		assert fileSys.listStatus(dir).length == 0 : "finished peers leave no checkpoints";
+		fileSys.delete(dir, true);
+
+		//A failed write behind surfaces with its cause on the next write
+		fileSys.create(dir, true).close();
+		final Checkpoints failing = new Checkpoints(fileSys, dir, 1, 0, 1, true);
+		failing.write(1, new byte[] {1});
+
+		IOException failure = null;
+		try {
+			failing.write(2, new byte[] {2});
+		} catch (IOException e) {
+			failure = e;
+		}
+		failing.close();
+		fileSys.delete(dir, false);
+
+		assert failure != null && failure.getCause() instanceof RuntimeException : "write failure kept as cause";
+
+		System.out.println("Checkpoints OK");
+	}
+}
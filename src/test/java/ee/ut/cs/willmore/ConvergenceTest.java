@@ -0,0 +1,48 @@
+package ee.ut.cs.willmore;
+
+import org.apache.hadoop.conf.Configuration;
+
+public class ConvergenceTest {
+
+	private static Convergence.Iteration iteration(int number, double shift, long changes, double wcss) {
+		return new Convergence.Iteration(number, shift, changes, 1000, wcss);
+	}
+
+	public static void main(String[] args) {
+
+		Assertions.requireEnabled();
+
+		final Configuration none = new Configuration();
+		assert !Convergence.of(none).hasRules() : "no rules by default";
+		assert !Convergence.of(none).isConverged(iteration(1000, 0, 0, 0)) : "default never stops";
+
+		final Configuration shift = new Configuration();
+		shift.set(KMeansCluster.CONF_CONVERGE_SHIFT, "0.5");
+		assert !Convergence.of(shift).isConverged(iteration(1, Double.POSITIVE_INFINITY, -1, Double.NaN)) : "first means";
+		assert Convergence.of(shift).isConverged(iteration(2, 0.5, 10, Double.NaN)) : "shift at epsilon";
+
+		final Configuration changes = new Configuration();
+		changes.set(KMeansCluster.CONF_CONVERGE_CHANGES, "0.01");
+		assert !Convergence.of(changes).isConverged(iteration(1, 1, -1, Double.NaN)) : "changes unknown";
+		assert !Convergence.of(changes).isConverged(iteration(1, 1, 10, Double.NaN)) : "1% changed";
+		assert Convergence.of(changes).isConverged(iteration(1, 1, 9, Double.NaN)) : "under 1% changed";
+
+		final Configuration wcss = new Configuration();
+		wcss.set(KMeansCluster.CONF_CONVERGE_WCSS, "0.1");
+		final Convergence improvement = Convergence.of(wcss);
+		assert improvement.needsWcss() : "wcss needed";
+		assert !improvement.isConverged(iteration(1, 1, 1, Double.NaN)) : "no wcss yet";
+		assert !improvement.isConverged(iteration(2, 1, 1, 100)) : "first wcss";
+		assert !improvement.isConverged(iteration(3, 1, 1, 80)) : "20% better";
+		assert improvement.isConverged(iteration(4, 1, 1, 75)) : "under 10% better";
+
+		final Configuration limit = new Configuration();
+		limit.setInt(KMeansCluster.CONF_CONVERGE_ITERATIONS, 3);
+		assert !Convergence.of(limit).isConverged(iteration(2, 1, 1, Double.NaN)) : "under the limit";
+		assert Convergence.of(limit).isConverged(iteration(3, 1, 1, Double.NaN)) : "at the limit";
+
+		assert Convergence.maxShift(new double[] {0, 0, 1, 1}, new double[] {3, 4, 1, 1}, 2) == 5 : "max shift";
+
+		System.out.println("Convergence OK");
+	}
+}
@@ -0,0 +1,134 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.hama.bsp.BSPMessage;
+import org.apache.hama.bsp.BSPPeerProtocol;
+
+/**
+ * A group of in-memory BSP peers, one thread each, for tests and benchmarks
+ * of message exchanges. Messages sent in a superstep are delivered once all
+ * peers reached sync. After sync, each peer waits {@code nanosPerMessage} for
+ * every message it received, as a stand-in for the transfer time that a
+ * real network would add.
+ */
+class LocalPeers {
+
+	final String[] names;
+
+	private final List<Queue<BSPMessage>> pending = new ArrayList<Queue<BSPMessage>>();
+	private final List<Queue<BSPMessage>> current = new ArrayList<Queue<BSPMessage>>();
+	private final CyclicBarrier barrier;
+	private final long nanosPerMessage;
+
+	private final AtomicLong messages = new AtomicLong();
+
+	//Calls to sync per peer, each counted by the peer's own thread
+	private final int[] syncs;
+
+	LocalPeers(int numPeers, long nanosPerMessage) {
+
+		this.nanosPerMessage = nanosPerMessage;
+
+		names = new String[numPeers];
+		syncs = new int[numPeers];
+		for (int i = 0; i < numPeers; i++) {
+			names[i] = String.format("peer%03d:61000", i);
+			pending.add(new LinkedList<BSPMessage>());
+			current.add(new LinkedList<BSPMessage>());
+		}
+
+		//Runs once all peers are in sync, so no peer sends meanwhile
+		barrier = new CyclicBarrier(numPeers, new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < names.length; i++) {
+					current.get(i).addAll(pending.get(i));
+					pending.get(i).clear();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return Messages sent so far by all peers
+	 */
+	long messages() {
+		return messages.get();
+	}
+
+	/**
+	 * @return Times peer {@code index} called sync, read once its thread is
+	 *         done
+	 */
+	int syncs(int index) {
+		return syncs[index];
+	}
+
+	BSPPeerProtocol peer(final int index) {
+		return (BSPPeerProtocol) Proxy.newProxyInstance(BSPPeerProtocol.class.getClassLoader(),
+				new Class<?>[] {BSPPeerProtocol.class}, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+						final String name = method.getName();
+
+						if ("send".equals(name)) {
+							send((String) args[0], (BSPMessage) args[1]);
+							return null;
+						} else if ("getCurrentMessage".equals(name)) {
+							return current.get(index).poll();
+						} else if ("sync".equals(name)) {
+							sync(index);
+							return null;
+						} else if ("getPeerName".equals(name)) {
+							return names[index];
+						} else if ("getAllPeerNames".equals(name)) {
+							return names.clone();
+						}
+						throw new UnsupportedOperationException(name);
+					}
+				});
+	}
+
+	private void send(String peerName, BSPMessage msg) throws IOException {
+
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(peerName)) {
+				final Queue<BSPMessage> queue = pending.get(i);
+				synchronized (queue) {
+					queue.add(msg);
+				}
+				messages.incrementAndGet();
+				return;
+			}
+		}
+
+		throw new IOException("Unknown peer " + peerName);
+	}
+
+	private void sync(int index) throws InterruptedException {
+
+		syncs[index]++;
+
+		try {
+			barrier.await();
+		} catch (BrokenBarrierException e) {
+			throw new RuntimeException(e);
+		}
+
+		if (nanosPerMessage > 0) {
+			LockSupport.parkNanos(nanosPerMessage * current.get(index).size());
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import org.apache.hama.bsp.BSPMessage;
+import org.apache.hama.bsp.BSPPeerProtocol;
+
+public class MessageHeaderTest {
+
+	/**
+	 * A peer that only hands out {@code messages}.
+	 */
+	private static BSPPeerProtocol receivingPeer(final Queue<BSPMessage> messages) {
+		return (BSPPeerProtocol) Proxy.newProxyInstance(BSPPeerProtocol.class.getClassLoader(),
+				new Class<?>[] {BSPPeerProtocol.class}, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if ("getCurrentMessage".equals(method.getName())) {
+							return messages.poll();
+						}
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		Assertions.requireEnabled();
+
+		final BSPMessage msg = MessageHeader.create(MessageHeader.SUMS, 70000, -1, new byte[] {1, 2});
+
+		assert msg.getTag().length == MessageHeader.BYTES : "header size";
+		assert MessageHeader.type(msg) == MessageHeader.SUMS : "type";
+		assert MessageHeader.index(msg) == 70000 : "index";
+		assert MessageHeader.count(msg) == -1 : "count";
+
+		MessageHeader.check(msg, MessageHeader.SUMS);
+
+		boolean thrown = false;
+		try {
+			MessageHeader.check(msg, MessageHeader.MEANS);
+		} catch (RuntimeException e) {
+			thrown = true;
+		}
+		assert thrown : "wrong type rejected";
+
+		//Partial sums survive the round trip through the header
+		final PartialSums partial = new PartialSums(3, 2, 4);
+		partial.add(1, new double[] {1, 2, 3, 4}, 0);
+		partial.addChanges(5);
+
+		final PartialSums decoded = PartialSums.fromMessage(partial.toMessage());
+		assert decoded.getPeerIndex() == 3 && decoded.getK() == 2 && decoded.getDimensions() == 4 : "sums shape";
+		assert decoded.getCount(1) == 1 && decoded.getChanges() == 5 : "sums counts";
+
+		//Points and a mean dispatched to their handlers in one superstep
+		final Queue<BSPMessage> messages = new LinkedList<BSPMessage>();
+		messages.add(KMeansCluster.ClusterBSP.pointsToByteMessage(MessageHeader.POINTS, 1,
+				Arrays.asList(new DenseVector(1, 2, 3), new DenseVector(4, 5, 6)), Precision.FLOAT));
+		messages.add(KMeansCluster.ClusterBSP.pointsToByteMessage(MessageHeader.MEAN, 2,
+				Arrays.asList(new DenseVector(7, 8, 9)), Precision.DOUBLE));
+
+		final int[] handled = new int[MessageHeader.TYPES];
+
+		final MessageDispatcher dispatcher = new MessageDispatcher()
+			.register(MessageHeader.POINTS, new MessageDispatcher.Handler() {
+				@Override
+				public void handle(BSPMessage msg) throws IOException {
+					assert KMeansCluster.ClusterBSP.byteToPoints(msg, 3, Precision.FLOAT).get(1).equals(new DenseVector(4, 5, 6)) : "points";
+					handled[MessageHeader.POINTS]++;
+				}
+			})
+			.register(MessageHeader.MEAN, new MessageDispatcher.Handler() {
+				@Override
+				public void handle(BSPMessage msg) throws IOException {
+					assert MessageHeader.index(msg) == 2 : "mean owner";
+					assert KMeansCluster.ClusterBSP.byteToPoints(msg, 3, Precision.DOUBLE).get(0).equals(new DenseVector(7, 8, 9)) : "mean";
+					handled[MessageHeader.MEAN]++;
+				}
+			});
+
+		final int dispatched = dispatcher.dispatch(receivingPeer(messages));
+		assert dispatched == 2 : "dispatched count";
+		assert handled[MessageHeader.POINTS] == 1 && handled[MessageHeader.MEAN] == 1 : "each handler once";
+
+		thrown = false;
+		messages.add(MessageHeader.create(MessageHeader.COST, 0, 1, new byte[8]));
+		try {
+			dispatcher.dispatch(receivingPeer(messages));
+		} catch (RuntimeException e) {
+			thrown = true;
+		}
+		assert thrown : "unregistered type rejected";
+
+		System.out.println("MessageHeader OK");
+	}
+}
@@ -0,0 +1,112 @@
+package ee.ut.cs.willmore;
+
+import java.nio.ByteBuffer;
+
+public class PointStoreTest {
+
+	public static void main(String[] args) {
+
+		Assertions.requireEnabled();
+
+		final PointStore store = new PointStore(3, 1);
+
+		for (int i = 0; i < 100; i++) {
+			store.add(new DenseVector(i, i + 0.5, -i));
+		}
+
+		assert store.size() == 100 : "size after add";
+		assert store.get(42).equals(new DenseVector(42, 42.5, -42)) : "get";
+
+		//Removing the first point moves the last one into its slot
+		store.swapRemove(0);
+		assert store.size() == 99 : "size after remove";
+		assert store.get(0, 0) == 99 : "swapped in last point";
+
+		store.swapRemove(store.size() - 1);
+		assert store.size() == 98 : "remove last";
+
+		final ByteBuffer buffer = ByteBuffer.allocate(2 * 3 * 8);
+		buffer.putDouble(1).putDouble(2).putDouble(3);
+		buffer.putDouble(4).putDouble(5).putDouble(6);
+		buffer.flip();
+
+		store.append(buffer);
+		assert store.size() == 100 : "size after append";
+		assert store.get(99).equals(new DenseVector(4, 5, 6)) : "appended point";
+		assert store.distance(98, new DenseVector(1, 2, 3)) == 0 : "distance";
+
+		//Records are sized by the dimension
+		for (int dimensions : new int[] {1, 2, 7, 128}) {
+			final PointStore wide = new PointStore(dimensions);
+			final ByteBuffer records = ByteBuffer.allocate(3 * dimensions * 8);
+
+			for (int i = 0; i < 3 * dimensions; i++) {
+				records.putDouble(i);
+			}
+			records.flip();
+
+			wide.append(records);
+			assert wide.size() == 3 : "append " + dimensions + " dimensions";
+			assert wide.get(2, dimensions - 1) == 3 * dimensions - 1 : "last coordinate, " + dimensions + " dimensions";
+
+			final double[] origin = new double[dimensions];
+			double expected = 0;
+			for (int d = 0; d < dimensions; d++) {
+				expected += (double) d * d;
+			}
+			assert wide.distance(0, new DenseVector(origin)) == Math.sqrt(expected) : "distance, " + dimensions + " dimensions";
+		}
+
+		//Float stores narrow on the way in and widen on the way out
+		final PointStore floats = new PointStore(3, 1, Precision.FLOAT);
+		floats.add(new DenseVector(0.1, 2, 3));
+		floats.add(store, 99);
+		assert floats.get(0, 0) == (float) 0.1 : "narrowed coordinate";
+		assert floats.get(1).equals(new DenseVector(4, 5, 6)) : "added from a double store";
+
+		final ByteBuffer floatRecords = ByteBuffer.allocate(2 * 3 * 4);
+		floats.put(1, floatRecords);
+		floats.put(0, floatRecords);
+		floatRecords.flip();
+		assert floatRecords.remaining() == 2 * 3 * Precision.FLOAT.bytes : "float record size";
+
+		floats.append(floatRecords);
+		assert floats.size() == 4 && floats.get(2).equals(floats.get(1)) && floats.get(3).equals(floats.get(0)) : "float round trip";
+
+		final double[] sums = new double[3];
+		floats.addTo(1, sums, 0);
+		floats.addTo(2, sums, 0);
+		assert sums[2] == 12 : "sums in double";
+
+		floats.subtractFrom(2, sums, 0);
+		assert sums[2] == 6 && sums[0] == 4 : "subtracted from sums";
+
+		floats.swapRemove(1);
+		assert floats.size() == 3 && floats.get(1, 0) == (float) 0.1 : "swapped in last float point";
+		assert floats.squaredDistance(2, new double[] {4, 5, 7}, 0) == 1 : "float distance";
+
+		//Bulk encode of selected points appends to the end of a partly read buffer
+		for (Precision precision : Precision.values()) {
+			final PointStore source = new PointStore(3, precision);
+			for (int i = 0; i < 5; i++) {
+				source.add(new DenseVector(i, -i, i * 2));
+			}
+
+			final byte[] encoded = source.encode(new int[] {4, 1, 3}, 1, 3);
+			assert encoded.length == 2 * 3 * precision.bytes : precision + " encoded size";
+
+			final ByteBuffer message = ByteBuffer.allocate(4 + encoded.length);
+			message.putInt(7).put(encoded).flip();
+			message.getInt();
+
+			final PointStore target = new PointStore(3, 1, precision);
+			target.add(new DenseVector(9, 9, 9));
+			target.append(message);
+			assert !message.hasRemaining() : precision + " buffer consumed";
+			assert target.size() == 3 && target.get(1).equals(source.get(1)) && target.get(2).equals(source.get(3)) :
+					precision + " bulk round trip";
+		}
+
+		System.out.println("PointStore OK");
+	}
+}
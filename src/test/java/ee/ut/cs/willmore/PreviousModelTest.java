@@ -0,0 +1,97 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+public class PreviousModelTest {
+
+	private static void write(FileSystem fileSys, Path path, double[]... records) throws IOException {
+		final PointWriter writer = new PointWriter(fileSys.create(path, true));
+		for (double[] record : records) {
+			writer.write(new DenseVector(record));
+		}
+		writer.close();
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		Assertions.requireEnabled();
+
+		final FileSystem fileSys = FileSystem.get(new Configuration());
+		final Path dir = new Path("/tmp/kmeans_previous_model_test_" + System.currentTimeMillis());
+
+		//Cluster 0 on two peers in partition mode, an empty cluster and a stray temporary file
+		write(fileSys, new Path(dir, "out/peer0_0"), new double[] {1, 1}, new double[] {0, 0}, new double[] {2, 2});
+		write(fileSys, new Path(dir, "out/peer1_0"), new double[] {1, 1}, new double[] {1, 1});
+		write(fileSys, new Path(dir, "out/peer1_1"), new double[] {9, 9}, new double[] {9, 9});
+		write(fileSys, new Path(dir, "out/_means"), new double[] {5, 5});
+
+		final PreviousModel model = PreviousModel.read(fileSys, new Path(dir, "out"), 2, Precision.DOUBLE);
+		assert model.size() == 2 : "same mean taken once";
+		assert model.getClustered() == 4 : "points of all files";
+		assert Arrays.equals(model.weights(3), new double[] {3, 1, 0}) : "points behind every mean";
+
+		//Missing means are the first source points
+		final FSDataOutputStream source = fileSys.create(new Path(dir, "source"), true);
+		source.writeInt(2);
+		source.writeDouble(7);
+		source.writeDouble(8);
+		source.writeDouble(0);
+		source.writeDouble(0);
+		source.close();
+
+		final PointReader reader = PointReader.open(fileSys, new Path(dir, "source"), 2, Precision.DOUBLE);
+		final double[] initial = model.initialMeans(3, reader);
+		assert Arrays.equals(initial, new double[] {1, 1, 9, 9, 7, 8}) : "means topped up from the source";
+
+		boolean thrown = false;
+		try {
+			model.initialMeans(1, reader);
+		} catch (RuntimeException e) {
+			thrown = true;
+		}
+		assert thrown : "more means than clusters rejected";
+		reader.close();
+
+		//Appended points are iterated first only on the same source file, grown
+		assert model.appendedFrom("source", 6) == -1 : "no source named";
+
+		PreviousModel.writeSource(fileSys, new Path(dir, "out"), "source", 4);
+		final PreviousModel named = PreviousModel.read(fileSys, new Path(dir, "out"), 2, Precision.DOUBLE);
+		assert named.size() == 2 : "source record is not an output file";
+		assert named.appendedFrom("source", 6) == 4 : "points appended to the source";
+		assert named.appendedFrom("other", 6) == -1 : "another source file";
+		assert named.appendedFrom("source", 4) == -1 : "nothing appended";
+
+		PreviousModel.writeSource(fileSys, new Path(dir, "out"), "source", 5);
+		assert PreviousModel.read(fileSys, new Path(dir, "out"), 2, Precision.DOUBLE).appendedFrom("source", 6) == -1 :
+				"output missing points of its source";
+
+		//The output file of an empty migrate mode cluster holds no mean
+		write(fileSys, new Path(dir, "migrate/peer0_6100"), new double[] {4, 4}, new double[] {4, 4});
+		write(fileSys, new Path(dir, "migrate/peer1_6100"), new double[] {0, 0});
+		final PreviousModel migrate = PreviousModel.read(fileSys, new Path(dir, "migrate"), 2, Precision.DOUBLE);
+		assert Arrays.equals(migrate.means(), new double[] {4, 4}) && migrate.getClustered() == 1 : "empty cluster skipped";
+
+		//A means file tells nothing about the points
+		write(fileSys, new Path(dir, "online/means"), new double[] {1, 2}, new double[] {3, 4});
+		final PreviousModel online = PreviousModel.read(fileSys, new Path(dir, "online"), 2, Precision.DOUBLE);
+		assert online.size() == 2 && online.getClustered() == -1 : "means file without points";
+
+		//Of the means published in online mode only the latest are read
+		write(fileSys, new Path(dir, "published/means-0000000009"), new double[] {1, 2}, new double[] {3, 4});
+		write(fileSys, new Path(dir, "published/means-0000000010"), new double[] {5, 6}, new double[] {7, 8});
+		final PreviousModel published = PreviousModel.read(fileSys, new Path(dir, "published"), 2, Precision.DOUBLE);
+		assert Arrays.equals(published.means(), new double[] {5, 6, 7, 8}) && published.getClustered() == -1 :
+				"latest published means";
+
+		fileSys.delete(dir, true);
+
+		System.out.println("PreviousModel OK");
+	}
+}
@@ -0,0 +1,51 @@
+package ee.ut.cs.willmore;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class SeedingTest {
+
+	public static void main(String[] args) {
+
+		Assertions.requireEnabled();
+
+		final int k = 8;
+		final Random random = new Random(7);
+
+		//k tight, far apart groups of 100 points
+		final PointStore points = new PointStore(3);
+		for (int c = 0; c < k; c++) {
+			for (int i = 0; i < 100; i++) {
+				points.add(new DenseVector(c * 1000 + random.nextDouble(), random.nextDouble(), random.nextDouble()));
+			}
+		}
+
+		for (int seed = 0; seed < 20; seed++) {
+			final double[] means = Seeding.plusPlus(points, null, k, new Random(seed));
+
+			final Set<Long> groups = new HashSet<Long>();
+			for (int c = 0; c < k; c++) {
+				groups.add(Math.round(means[c * 3] / 1000));
+			}
+			assert groups.size() == k : "one mean per group, seed " + seed;
+		}
+
+		//Points without weight are never chosen
+		final double[] weights = new double[points.size()];
+		for (int i = 0; i < points.size(); i += 100) {
+			weights[i] = 1;
+		}
+
+		final double[] weighted = Seeding.plusPlus(points, weights, k, new Random(3));
+		for (int c = 0; c < k; c++) {
+			boolean found = false;
+			for (int i = 0; i < points.size(); i += 100) {
+				found |= points.get(i, 0) == weighted[c * 3];
+			}
+			assert found : "weighted mean " + c + " has weight";
+		}
+
+		System.out.println("SeedingTest passed");
+	}
+}
@@ -0,0 +1,107 @@
+package ee.ut.cs.willmore;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Runs a local k-means loop over sparse points with {@link SparseAssigner}
+ * and checks every iteration against {@link LloydAssigner} over the same
+ * points stored densely. Also round trips the sparse and dense encodings of
+ * {@link PartialSums} messages.
+ */
+public class SparseAssignerTest {
+
+	public static void main(String[] args) {
+
+		Assertions.requireEnabled();
+
+		final Random random = new Random(42);
+		final int numPoints = 3000;
+		final int dimensions = 500;
+		final int nonZeros = 12;
+		final int k = 20;
+
+		final SparsePointStore sparse = new SparsePointStore(dimensions);
+		final PointStore dense = new PointStore(dimensions, numPoints);
+
+		final int[] indices = new int[nonZeros];
+		final double[] values = new double[nonZeros];
+		final double[] point = new double[dimensions];
+
+		for (int i = 0; i < numPoints; i++) {
+			//Clustered around one of k blocks of dimensions
+			final int block = random.nextInt(k) * (dimensions / k);
+			Arrays.fill(point, 0);
+
+			for (int j = 0; j < nonZeros; j++) {
+				indices[j] = j < nonZeros - 2 ? block + j : random.nextInt(dimensions);
+				values[j] = 1 + random.nextInt(5);
+			}
+			for (int j = 0; j < nonZeros; j++) {
+				point[indices[j]] = values[j];
+			}
+
+			//Collisions of the random indices with the block keep the last value
+			sparse.addDense(point, 0);
+			dense.add(point, 0);
+		}
+
+		final SparseAssigner sparseAssigner = new SparseAssigner(sparse, k);
+		final Assigner lloyd = Assigner.create(Assigner.LLOYD, dense, k);
+
+		final int[] expected = new int[numPoints];
+		final int[] assignments = new int[numPoints];
+		Arrays.fill(expected, -1);
+		Arrays.fill(assignments, -1);
+
+		final double[] means = Arrays.copyOf(dense.toArray(), k * dimensions);
+
+		int iterations = 0;
+
+		while (true) {
+			final PartialSums partial = new PartialSums(0, k, dimensions);
+			final int changes = lloyd.assign(means, expected, partial);
+
+			final PartialSums other = new PartialSums(0, k, dimensions);
+			final int otherChanges = sparseAssigner.assign(means, assignments, other);
+
+			assert otherChanges == changes : "Change count differs in iteration " + iterations;
+			assert Arrays.equals(expected, assignments) : "Assignments differ in iteration " + iterations;
+
+			checkRoundTrip(other, means);
+			iterations++;
+
+			if (changes == 0) {
+				break;
+			}
+
+			other.updateMeans(means);
+		}
+
+		//Sums of random clusters have mostly non-zeros and are sent dense
+		final PartialSums mixed = new PartialSums(1, k, dimensions);
+		for (int i = 0; i < numPoints; i++) {
+			mixed.add(i % k, dense.coordinates(), i * dimensions);
+		}
+		checkRoundTrip(mixed, means);
+
+		System.out.println("Sparse assigner OK, " + iterations + " iterations, "
+				+ sparse.nonZeros() + " non-zeros in " + numPoints + " points");
+	}
+
+	private static void checkRoundTrip(PartialSums partial, double[] means) {
+
+		final PartialSums decoded = PartialSums.fromMessage(partial.toMessage());
+
+		final double[] expected = means.clone();
+		final double[] actual = means.clone();
+		partial.updateMeans(expected);
+		decoded.updateMeans(actual);
+
+		assert Arrays.equals(expected, actual) && decoded.getPeerIndex() == partial.getPeerIndex() :
+				"Partial sums changed in the message";
+		for (int c = 0; c < partial.getK(); c++) {
+			assert decoded.getCount(c) == partial.getCount(c) : "Counts changed in the message";
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package ee.ut.cs.willmore;
+
+public class StreamingTest {
+
+	private static PartialSums batch(double... values) {
+		final PartialSums partial = new PartialSums(0, 2, 1);
+		for (double value : values) {
+			partial.add(0, new double[] {value}, 0);
+		}
+		return partial;
+	}
+
+	public static void main(String[] args) {
+
+		Assertions.requireEnabled();
+
+		//Without forgetting the means are those of all points so far, as in mini-batch
+		final double[] means = {0, 5};
+		final double[] weights = new double[2];
+		final double[] miniBatchMeans = means.clone();
+		final long[] seen = new long[2];
+
+		for (PartialSums partial : new PartialSums[] {batch(2, 4), batch(9), batch(1, 1, 1)}) {
+			partial.updateMeans(means, weights, 1);
+			partial.updateMeans(miniBatchMeans, seen);
+		}
+
+		assert means[0] == 18.0 / 6 && means[0] == miniBatchMeans[0] : "decay 1 is the mean of all points";
+		assert weights[0] == 6 && means[1] == 5 && weights[1] == 0 : "untouched cluster keeps its mean";
+
+		//Decay 0 forgets everything but the last batch
+		batch(10, 20).updateMeans(means, weights, 0);
+		assert means[0] == 15 && weights[0] == 2 : "decay 0 is the batch mean";
+
+		//Half weight for the past: (0.5 * 2 * 15 + 30) / (0.5 * 2 + 1)
+		batch(30).updateMeans(means, weights, 0.5);
+		assert means[0] == 22.5 && weights[0] == 2 : "decayed weighted mean";
+
+		//Clusters without points keep their mean, only their weight decays
+		new PartialSums(0, 2, 1).updateMeans(means, weights, 0.5);
+		assert weights[0] == 1 && means[0] == 22.5 : "empty batch only decays weights";
+
+		System.out.println("Streaming OK");
+	}
+}
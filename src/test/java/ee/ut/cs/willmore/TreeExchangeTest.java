@@ -0,0 +1,145 @@
+package ee.ut.cs.willmore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hama.bsp.BSPMessage;
+import org.apache.hama.bsp.BSPPeerProtocol;
+
+public class TreeExchangeTest {
+
+	private static String[] names(int numPeers) {
+		final String[] names = new String[numPeers];
+		for (int i = 0; i < numPeers; i++) {
+			names[i] = "peer" + i;
+		}
+		return names;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		Assertions.requireEnabled();
+
+		final TreeExchange binary = new TreeExchange(names(7), 0, 2);
+		assert binary.parent(5) == 2 && binary.parent(6) == 2 && binary.firstChild(2) == 5 : "binary tree links";
+		assert binary.depth(0) == 0 && binary.depth(2) == 1 && binary.depth(6) == 2 : "binary tree depths";
+		assert binary.supersteps() == 4 : "binary tree supersteps";
+		assert new TreeExchange(names(1), 0, 4).supersteps() == 0 : "single peer";
+
+		boolean thrown = false;
+		try {
+			new TreeExchange(names(4), 0, 1);
+		} catch (IllegalArgumentException e) {
+			thrown = true;
+		}
+		assert thrown : "fan-out 1 rejected";
+
+		final ExecutorService threads = Executors.newCachedThreadPool();
+
+		//Sums of all peers reach all peers, for full and partial last levels
+		for (final int numPeers : new int[] {1, 2, 5, 13}) {
+			for (final int fanout : new int[] {2, 3}) {
+
+				final LocalPeers peers = new LocalPeers(numPeers, 0);
+				final String[] names = peers.names;
+				final List<Callable<PartialSums>> exchanges = new ArrayList<Callable<PartialSums>>();
+
+				for (int i = 0; i < numPeers; i++) {
+					final int index = i;
+					exchanges.add(new Callable<PartialSums>() {
+						@Override
+						public PartialSums call() throws Exception {
+							final PartialSums mine = new PartialSums(index, 2, 1);
+							mine.add(index % 2, new double[] {index}, 0);
+							mine.addChanges(1);
+							return new TreeExchange(names, index, fanout).allReduce(peers.peer(index), mine);
+						}
+					});
+				}
+
+				final String shape = numPeers + " peers, fan-out " + fanout;
+				final int supersteps = new TreeExchange(names, 0, fanout).supersteps();
+
+				double expected = 0;
+				for (int i = 0; i < numPeers; i += 2) {
+					expected += i;
+				}
+				expected /= (numPeers + 1) / 2;
+
+				for (Future<PartialSums> result : threads.invokeAll(exchanges)) {
+					final PartialSums total = result.get();
+					assert total.getChanges() == numPeers : "changes of all peers, " + shape;
+					assert total.getCount(0) + total.getCount(1) == numPeers : "counts of all peers, " + shape;
+
+					final double[] means = new double[2];
+					total.updateMeans(means);
+					assert means[0] == expected : "mean of even peers, " + shape;
+				}
+
+				for (int i = 0; i < numPeers; i++) {
+					assert peers.syncs(i) == supersteps : "every peer syncs " + supersteps + " times, " + shape;
+				}
+			}
+		}
+
+		//Gathered messages arrive everywhere in the same order, other messages go straight to the dispatcher
+		final LocalPeers peers = new LocalPeers(6, 0);
+		final String[] names = peers.names;
+		final List<Callable<List<Integer>>> gathers = new ArrayList<Callable<List<Integer>>>();
+
+		for (int i = 0; i < names.length; i++) {
+			final int index = i;
+			gathers.add(new Callable<List<Integer>>() {
+				@Override
+				public List<Integer> call() throws Exception {
+					final List<Integer> order = new ArrayList<Integer>();
+					final int[] points = new int[1];
+
+					final MessageDispatcher dispatcher = new MessageDispatcher()
+						.register(MessageHeader.MEAN, new MessageDispatcher.Handler() {
+							@Override
+							public void handle(BSPMessage msg) throws IOException {
+								order.add(MessageHeader.index(msg));
+							}
+						})
+						.register(MessageHeader.POINTS, new MessageDispatcher.Handler() {
+							@Override
+							public void handle(BSPMessage msg) throws IOException {
+								points[0]++;
+							}
+						});
+
+					final BSPPeerProtocol peer = peers.peer(index);
+
+					peer.send(names[(index + 1) % names.length], MessageHeader.create(MessageHeader.POINTS, index, 0, new byte[0]));
+
+					final List<BSPMessage> mine = index % 3 == 0 ? Collections.<BSPMessage>emptyList()
+							: Collections.singletonList(MessageHeader.create(MessageHeader.MEAN, index, 1, new byte[] {(byte) index}));
+
+					new TreeExchange(names, index, 2).allGather(peer, mine, dispatcher);
+
+					assert points[0] == 1 : "points passed to the dispatcher";
+					return order;
+				}
+			});
+		}
+
+		List<Integer> first = null;
+		for (Future<List<Integer>> result : threads.invokeAll(gathers)) {
+			final List<Integer> order = result.get();
+			assert order.size() == 4 : "means of all peers gathered";
+			assert first == null || first.equals(order) : "same order on all peers";
+			first = order;
+		}
+
+		threads.shutdown();
+
+		System.out.println("TreeExchange OK");
+	}
+}